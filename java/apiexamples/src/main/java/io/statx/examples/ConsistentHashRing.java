@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys (feeds) to members (publisher instances) by consistent hashing.
+ *
+ * Each member is placed on the ring at several points, and a key belongs to the first member
+ * found clockwise from the hash of the key. When a member joins or leaves only the keys next
+ * to its points move, about 1/N of them.
+ */
+public class ConsistentHashRing {
+
+    // Points per member. More points spread the keys more evenly.
+    private static final int POINTS_PER_MEMBER = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> members;
+
+    public ConsistentHashRing(Collection<String> members) {
+        this.members = Collections.unmodifiableSet(new TreeSet<>(members));
+        for (String member : this.members) {
+            for (int i = 0; i < POINTS_PER_MEMBER; i++) {
+                ring.put(hash(member + '#' + i), member);
+            }
+        }
+    }
+
+    /**
+     * @return the members of the ring, sorted.
+     */
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * @return the member that owns {@code key}, or null if the ring is empty.
+     */
+    public String ownerOf(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(key));
+        if (point == null) {
+            // Past the last point. Wrap around to the first one.
+            point = ring.firstEntry();
+        }
+        return point.getValue();
+    }
+
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long result = 0;
+            for (int i = 0; i < 8; i++) {
+                result = (result << 8) | (digest[i] & 0xff);
+            }
+            return result;
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -10,7 +10,6 @@
 package io.statx.examples;
 
 import io.statx.rest.StatXClient;
-import io.statx.rest.api.GroupsApi;
 import io.statx.rest.api.StatsApi;
 import io.statx.rest.model.*;
 import org.joda.time.DateTime;
@@ -56,6 +55,9 @@ public class CountdownOfNumberOfDays {
         StatXClient statXClient = new StatXClient();
         StatXClient.UserCredential userCredential = statXClient.getCredentials(clientName, phoneNumber);
 
+        StatXLookup statXLookup = new StatXLookup(statXClient.getGroupsApi(userCredential),
+                statXClient.getStatsApi(userCredential));
+
         // Repeat once every 24 hours (see parameter below).
         while (true) {
 
@@ -65,27 +67,15 @@ public class CountdownOfNumberOfDays {
             // name as a key to determine whether the group exists or not. If possible use the
             // groupid instead.
             String groupName = "StatX-API-Examples";
-            GroupsApi groupsApi = statXClient.getGroupsApi(userCredential);
-            GroupList groupList = groupsApi.getGroups(groupName);
-            Group group;
-            if ((groupList == null) || (groupList.getData() == null) || (groupList.getData().isEmpty())) {
-                // The group does not exist. Let's create one. Since we are creating the group
-                // the api will add the current user as a member and admin of the group.
-                group = new Group();
-                group.setName(groupName);
-                group = groupsApi.createGroup(group);
-            } else {
-                // Pick the first group (should be the only one).
-                group = groupList.getData().get(0);
-            }
+            Group group = statXLookup.findOrCreateGroup(groupName);
 
             // Find the stat by name. If the stat does not exist then create it.
             //
             // Note: The stat title is not unique. In general it is not a good idea to use
             // the stat title as a key to determine whether the stat exists or not. If possible
             // use the statid instead.
-            StatsApi statsApi = statXClient.getStatsApi(userCredential);
-            StatList statList = statsApi.getStats(group.getName(), statTitle);
+            StatsApi statsApi = statXLookup.getStatsApi();
+            StatList statList = statXLookup.getStats(group.getName(), statTitle);
             if ((statList == null) || (statList.getData() == null) || (statList.getData().isEmpty())) {
                 // The stat does not exist. Let's create a number stat.
                 NumberStat numberStat = new NumberStat();
@@ -93,7 +83,7 @@ public class CountdownOfNumberOfDays {
                 numberStat.setVisualType(Stat.VisualTypeEnum.NUMBER);
                 numberStat.setGroupName(groupName);
                 numberStat.rawValue(getRemainingDays(targetDate));
-                statsApi.createStat(group.getId(), numberStat);
+                statXLookup.findOrCreateStat(group, numberStat);
             } else {
                 // Pick the first stat (should be the only one) and get the statId from it.
                 String statId = statList.getData().get(0).getId();
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.model.HorizontalBarItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the bars of horizontal bars stats to find out what changed since they were last
+ * published.
+ *
+ * Each bar is identified by its name. Comparing new bars with the published ones tells whether:
+ *  - nothing changed, so the bars do not need to be sent at all;
+ *  - only the values (or colors) of some bars changed;
+ *  - bars were added, removed or reordered, so the whole list is a new snapshot.
+ *
+ * Note: {@code StatsApi.updateStat} replaces the whole item list of a stat, so when bars
+ * change all of them are sent in one update. The savings come from skipping updates that
+ * change nothing.
+ */
+public class ItemDeltaTracker {
+
+    // Signatures of the published bars of each stat, by bar name, in order.
+    private final Map<String, Map<String, String>> publishedItems = new ConcurrentHashMap<>();
+
+    /**
+     * Compares the items of a horizontal bars stat with the published ones.
+     */
+    public Delta diffHorizontalBars(String statKey, List<HorizontalBarItem> items) {
+        Map<String, String> signatures = new LinkedHashMap<>();
+        for (HorizontalBarItem item : items) {
+            signatures.put(item.getName(), item.getRawValue() + "|" + item.getColor());
+        }
+        return diff(statKey, signatures, items.size());
+    }
+
+    /**
+     * Records the items of {@code delta} as published. Call it once the update went through.
+     */
+    public void commit(Delta delta) {
+        publishedItems.put(delta.statKey, delta.items);
+    }
+
+    private Delta diff(String statKey, Map<String, String> signatures, int itemCount) {
+        Map<String, String> published = publishedItems.get(statKey);
+        // Duplicate names cannot be told apart, so such lists are always sent whole.
+        boolean snapshotRequired = published == null || signatures.size() != itemCount
+                || !new ArrayList<>(published.keySet()).equals(new ArrayList<>(signatures.keySet()));
+
+        List<String> changedItems = new ArrayList<>();
+        for (Map.Entry<String, String> entry : signatures.entrySet()) {
+            String previous = (published == null) ? null : published.get(entry.getKey());
+            if (!entry.getValue().equals(previous)) {
+                changedItems.add(entry.getKey());
+            }
+        }
+        return new Delta(statKey, signatures, snapshotRequired, changedItems);
+    }
+
+    /**
+     * What changed in the items of a stat since they were last published.
+     */
+    public static class Delta {
+        private final String statKey;
+        private final Map<String, String> items;
+        private final boolean snapshotRequired;
+        private final List<String> changedItems;
+
+        Delta(String statKey, Map<String, String> items, boolean snapshotRequired, List<String> changedItems) {
+            this.statKey = statKey;
+            this.items = items;
+            this.snapshotRequired = snapshotRequired;
+            this.changedItems = Collections.unmodifiableList(changedItems);
+        }
+
+        /**
+         * @return true if items were added, removed or reordered (or never published).
+         */
+        public boolean isSnapshotRequired() {
+            return snapshotRequired;
+        }
+
+        /**
+         * @return the names of the items that are new or whose value changed.
+         */
+        public List<String> getChangedItems() {
+            return changedItems;
+        }
+
+        /**
+         * @return true if the items do not need to be sent.
+         */
+        public boolean isEmpty() {
+            return !snapshotRequired && changedItems.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return snapshotRequired ? "snapshot of " + items.size() + " items"
+                    : changedItems.size() + " of " + items.size() + " items changed " + changedItems;
+        }
+    }
+}
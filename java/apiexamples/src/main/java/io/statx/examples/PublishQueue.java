@@ -0,0 +1,290 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.ApiException;
+import io.statx.rest.api.StatsApi;
+import io.statx.rest.model.Stat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pending stat updates ordered by how much they matter, for when the StatX write budget
+ * does not allow publishing everything at once.
+ *
+ * The score of a pending update is
+ *   changeWeight * change + stalenessWeight * minutes since the stat was last published
+ * where change is how much the queued value differs from the last published one (1.0 is a
+ * 100% move or a state flip). A value that goes 10, 20 and back to 10 before it is published
+ * has no change. Since the staleness of every stat grows at the same rate, the order only
+ * depends on the change and on when the stat was last published, so a binary heap keeps it
+ * without rescoring. A newer sample for a stat that is already queued replaces the queued
+ * update and moves it in the heap in O(log n).
+ *
+ * The methods are thread safe. Updates are sent outside the lock.
+ */
+public class PublishQueue {
+
+    // Status code of ApiException when the stat or its group does not exist.
+    public static final int NOT_FOUND = 404;
+
+    private final double changeWeight;
+    private final double stalenessWeightPerMinute;
+
+    private final List<Pending> heap = new ArrayList<>();
+    private final Map<String, Pending> pendingByKey = new HashMap<>();
+    private final Map<String, Published> publishedByKey = new HashMap<>();
+
+    /**
+     * @param changeWeight score given to a change of 1.0 (a 100% move or a state flip).
+     * @param stalenessWeightPerMinute score given to each minute since the last publish.
+     */
+    public PublishQueue(double changeWeight, double stalenessWeightPerMinute) {
+        this.changeWeight = changeWeight;
+        this.stalenessWeightPerMinute = stalenessWeightPerMinute;
+    }
+
+    /**
+     * Records what a stat already shows in the app, for instance when it was listed or created
+     * outside of this queue. Without it a stat counts as never published. Does nothing if the
+     * queue already published the stat.
+     *
+     * @param groupId the id of the group of the stat.
+     * @param statId the id of the stat.
+     * @param value the value the stat shows, or null if it is not known.
+     * @param lastUpdated when the stat was last updated, as listed by the api. May be null.
+     */
+    public synchronized void seed(String groupId, String statId, Object value, Date lastUpdated) {
+        String key = groupId + '/' + statId;
+        if (!publishedByKey.containsKey(key)) {
+            publishedByKey.put(key, new Published(value, (lastUpdated == null) ? 0L : lastUpdated.getTime()));
+        }
+    }
+
+    /**
+     * Queues an update for a stat. If an update for the stat is already queued it is
+     * replaced by this one.
+     *
+     * @param groupId the id of the group of the stat.
+     * @param statId the id of the stat.
+     * @param update the stat to send to {@link StatsApi#updateStat}.
+     * @param value the value carried by the update: a {@link Number} for numeric stats, or any
+     *              other object for states. It is compared with the last published value.
+     */
+    public synchronized void offer(String groupId, String statId, Stat update, Object value) {
+        String key = groupId + '/' + statId;
+        Pending pending = pendingByKey.get(key);
+        if (pending == null) {
+            pending = new Pending(key, groupId, statId);
+            pending.index = heap.size();
+            heap.add(pending);
+            pendingByKey.put(key, pending);
+        }
+        Published published = publishedByKey.get(key);
+        double change = (published == null) ? 1.0 : change(published.value, value);
+        pending.update = update;
+        pending.value = value;
+        pending.priority = priority(change, (published == null) ? 0L : published.millis);
+        siftUp(pending.index);
+        siftDown(pending.index);
+    }
+
+    /**
+     * Sends up to {@code budget} of the highest scoring updates, best first.
+     *
+     * @param statsApi the api used to send the updates.
+     * @param budget the maximum number of updates to send.
+     * @return the number of updates sent.
+     * @throws ApiException if an update failed. That update is queued again, unless a newer
+     *                      one for the same stat was queued meanwhile or the stat was not found
+     *                      (code {@value #NOT_FOUND}). Updates of a stat that was deleted in the app
+     *                      are dropped, and the stat counts as never published.
+     */
+    public int publish(StatsApi statsApi, int budget) throws ApiException {
+        int sent = 0;
+        while (sent < budget) {
+            Pending pending = poll();
+            if (pending == null) {
+                break;
+            }
+            pending.update.setLastUpdatedDateTime(new Date(System.currentTimeMillis()));
+            try {
+                statsApi.updateStat(pending.groupId, pending.statId, pending.update);
+            } catch (ApiException e) {
+                if (e.getCode() == NOT_FOUND) {
+                    forget(pending.key);
+                } else {
+                    requeue(pending);
+                }
+                throw e;
+            }
+            synchronized (this) {
+                publishedByKey.put(pending.key, new Published(pending.value, System.currentTimeMillis()));
+            }
+            sent++;
+        }
+        return sent;
+    }
+
+    /**
+     * @return the number of queued updates.
+     */
+    public synchronized int size() {
+        return heap.size();
+    }
+
+    /**
+     * Relative change between two values. A value that appears or disappears counts as 1.0.
+     */
+    public static double valueChange(Double before, Double after) {
+        if (before == null || after == null) {
+            return (before == after) ? 0.0 : 1.0;
+        }
+        if (before.doubleValue() == after.doubleValue()) {
+            return 0.0;
+        }
+        double base = Math.max(Math.abs(before), Math.abs(after));
+        return Math.abs(after - before) / base;
+    }
+
+    /**
+     * Change between two states (for instance the charging state). Any flip counts as 1.0.
+     */
+    public static double stateChange(Object before, Object after) {
+        return (before == null ? after == null : before.equals(after)) ? 0.0 : 1.0;
+    }
+
+    private static double change(Object before, Object after) {
+        if ((before instanceof Number) && (after instanceof Number)) {
+            return valueChange(((Number) before).doubleValue(), ((Number) after).doubleValue());
+        }
+        return stateChange(before, after);
+    }
+
+    private double priority(double change, long lastPublished) {
+        // Same order as changeWeight * change + stalenessWeight * (now - lastPublished),
+        // without the term that is equal for every stat.
+        return changeWeight * change
+                - stalenessWeightPerMinute * ((double) lastPublished / TimeUnit.MINUTES.toMillis(1));
+    }
+
+    private synchronized Pending poll() {
+        if (heap.isEmpty()) {
+            return null;
+        }
+        Pending top = heap.get(0);
+        Pending last = heap.remove(heap.size() - 1);
+        if (last != top) {
+            last.index = 0;
+            heap.set(0, last);
+            siftDown(0);
+        }
+        pendingByKey.remove(top.key);
+        return top;
+    }
+
+    // Drops what is known about a stat that no longer exists, and any newer update queued for it.
+    private synchronized void forget(String key) {
+        publishedByKey.remove(key);
+        Pending pending = pendingByKey.remove(key);
+        if (pending != null) {
+            Pending last = heap.remove(heap.size() - 1);
+            if (last != pending) {
+                last.index = pending.index;
+                heap.set(pending.index, last);
+                siftUp(last.index);
+                siftDown(last.index);
+            }
+        }
+    }
+
+    // Puts back an update that failed to send, unless a newer one took its place.
+    private synchronized void requeue(Pending pending) {
+        if (pendingByKey.containsKey(pending.key)) {
+            return;
+        }
+        pending.index = heap.size();
+        heap.add(pending);
+        pendingByKey.put(pending.key, pending);
+        siftUp(pending.index);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap.get(parent).priority >= heap.get(index).priority) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            int right = left + 1;
+            int largest = index;
+            if (left < heap.size() && heap.get(left).priority > heap.get(largest).priority) {
+                largest = left;
+            }
+            if (right < heap.size() && heap.get(right).priority > heap.get(largest).priority) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(index, largest);
+            index = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Pending first = heap.get(i);
+        Pending second = heap.get(j);
+        heap.set(i, second);
+        heap.set(j, first);
+        first.index = j;
+        second.index = i;
+    }
+
+    // A queued update and its position in the heap.
+    private static class Pending {
+        final String key;
+        final String groupId;
+        final String statId;
+        Stat update;
+        Object value;
+        double priority;
+        int index;
+
+        Pending(String key, String groupId, String statId) {
+            this.key = key;
+            this.groupId = groupId;
+            this.statId = statId;
+        }
+    }
+
+    // The value a stat shows in the app and when it was published.
+    private static class Published {
+        final Object value;
+        final long millis;
+
+        Published(Object value, long millis) {
+            this.value = value;
+            this.millis = millis;
+        }
+    }
+}
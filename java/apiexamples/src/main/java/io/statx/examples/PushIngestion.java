@@ -0,0 +1,359 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.ApiException;
+import io.statx.rest.StatXClient;
+import io.statx.rest.model.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Example to show how to feed number stats from local producers that push their values,
+ * instead of polling them on a timer.
+ *
+ * Producers send UDP datagrams to the given port, on the loopback interface unless another bind
+ * address is given. The samples are not authenticated, so only bind to an address that
+ * untrusted hosts cannot reach. Each datagram holds one or more lines of
+ * the form {@code <Stat Title>=<Number>}, for instance:
+ *   echo "Queue Depth=42" | nc -u -w0 localhost 9125
+ *
+ * Samples are coalesced per stat (only the latest value of each stat is kept) and once a
+ * second the pending stats are published, most changed and most stale first, up to the
+ * given number of writes. A flood of samples turns into at most that many StatX writes per
+ * second. Stats that do not exist yet are created in the "StatX-API-Examples" group, and each
+ * create counts as one of the writes.
+ *
+ * Prerequisite: Download the StatX app from the appstore (IOS) or playstore (android) and sign up.
+ *
+ * Build it with maven with:
+ * mvn clean compile
+ *
+ * Call it with maven with:
+ *  mvn exec:java -Dexec.mainClass="io.statx.examples.PushIngestion" -Dexec.args="
+ *  <ClientName> <Phone Number in international format> <UDP Port> <Writes Per Second> [Bind Address]"
+ *
+ * For instance:
+ * mvn exec:java -Dexec.mainClass="io.statx.examples.PushIngestion" -Dexec.args="
+ * testclient +16509999999 9125 5"
+ */
+public class PushIngestion {
+
+    private static final String GROUP_NAME = "StatX-API-Examples";
+    private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+    // Datagrams read from the socket before going back to the selector.
+    private static final int MAX_DATAGRAMS_PER_BATCH = 256;
+    private static final int MAX_DATAGRAM_SIZE = 64 * 1024;
+    // Stats created at the same time when new titles show up.
+    private static final int CREATE_PARALLELISM = 8;
+    // Distinct stat titles accepted. Samples with other titles are dropped.
+    private static final int MAX_STATS = 1000;
+    // Client errors that are not about the stat being created, so creating it again may work.
+    private static final Set<Integer> TRANSIENT_CREATE_ERRORS = new HashSet<>(Arrays.asList(
+            401, 403, PublishQueue.NOT_FOUND, 408, 429));
+
+    private final StatXLookup statXLookup;
+    private final int writesPerSecond;
+    private final PublishQueue publishQueue = new PublishQueue(60, 1);
+
+    // Titles accepted so far, at most MAX_STATS of them.
+    private final Set<String> acceptedTitles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Accepted titles whose stat the api refused to create. Their samples are dropped.
+    private final Set<String> rejectedTitles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Latest value received for each stat title since the last flush.
+    private final ConcurrentMap<String, Double> latestValues = new ConcurrentHashMap<>();
+    // Stat ids by stat title.
+    private final Map<String, String> statIds = new ConcurrentHashMap<>();
+    private boolean bootstrapped;
+
+    public PushIngestion(StatXLookup statXLookup, int writesPerSecond) {
+        this.statXLookup = statXLookup;
+        this.writesPerSecond = writesPerSecond;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage java io.statx.examples.PushIngestion <ClientName> " +
+                    "<PhoneNumber Int Format> <UdpPort> <WritesPerSecond> [BindAddress]");
+            System.exit(-1);
+        }
+        String clientName = args[0];
+        String phoneNumber = args[1];
+        int port = Integer.parseInt(args[2]);
+        int writesPerSecond = Integer.parseInt(args[3]);
+        // Anyone who can reach the port can feed stats, so only listen locally unless told otherwise.
+        String bindAddress = (args.length > 4) ? args[4] : DEFAULT_BIND_ADDRESS;
+
+        // Lets sign up through the rest API and get an AuthToken. Once you get the credentials
+        // you should save them somewhere safe for use at a later time.
+        StatXClient statXClient = new StatXClient();
+        StatXClient.UserCredential userCredential = statXClient.getCredentials(clientName, phoneNumber);
+        StatXLookup statXLookup = new StatXLookup(statXClient.getGroupsApi(userCredential),
+                statXClient.getStatsApi(userCredential));
+
+        final PushIngestion pushIngestion = new PushIngestion(statXLookup, writesPerSecond);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pushIngestion.flush();
+                } catch (ApiException e) {
+                    // The failed update stays queued and is retried on the next flush.
+                    System.out.println("Update failed: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // Throwing would cancel the flushes for good while samples keep coming in.
+                    System.out.println("Flush failed: " + e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(bindAddress), port);
+        System.out.println("Listening for samples on UDP " + address);
+        pushIngestion.receive(address);
+    }
+
+    /**
+     * Receives samples until the thread is interrupted.
+     *
+     * @param address the address to listen on.
+     */
+    public void receive(InetSocketAddress address) throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            channel.bind(address);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+            while (!Thread.currentThread().isInterrupted()) {
+                if (selector.select() == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                // Drain whatever is waiting on the socket in one go.
+                for (int i = 0; i < MAX_DATAGRAMS_PER_BATCH; i++) {
+                    buffer.clear();
+                    if (channel.receive(buffer) == null) {
+                        break;
+                    }
+                    buffer.flip();
+                    accept(StandardCharsets.UTF_8.decode(buffer).toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the samples in {@code payload}, one {@code <Stat Title>=<Number>} per line.
+     * Lines that cannot be parsed, have an empty title or a value that is not a finite number
+     * are ignored, and so are new titles once there are {@value #MAX_STATS} of them and titles
+     * whose stat could not be created.
+     */
+    public void accept(String payload) {
+        int start = 0;
+        while (start < payload.length()) {
+            int end = payload.indexOf('\n', start);
+            if (end < 0) {
+                end = payload.length();
+            }
+            String line = payload.substring(start, end).trim();
+            start = end + 1;
+            int separator = line.lastIndexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            String statTitle = line.substring(0, separator).trim();
+            double value;
+            try {
+                value = Double.parseDouble(line.substring(separator + 1).trim());
+            } catch (NumberFormatException e) {
+                // Not a sample. Skip it.
+                continue;
+            }
+            // NaN and infinities cannot be scored nor sent as json.
+            if (statTitle.isEmpty() || Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            if (rejectedTitles.contains(statTitle)) {
+                continue;
+            }
+            if (!acceptedTitles.contains(statTitle)) {
+                if (acceptedTitles.size() >= MAX_STATS) {
+                    // Too many distinct titles. Keep feeding the known stats only.
+                    continue;
+                }
+                acceptedTitles.add(statTitle);
+            }
+            latestValues.put(statTitle, value);
+        }
+    }
+
+    /**
+     * Queues the samples received since the last flush and sends up to the write budget.
+     * Creating a stat counts as one write.
+     */
+    public void flush() throws ApiException {
+        int budget = writesPerSecond;
+        if (!latestValues.isEmpty()) {
+            Group group = statXLookup.findOrCreateGroup(GROUP_NAME);
+            if (!bootstrapped) {
+                // List the group once instead of looking up every stat title on its own.
+                StatIndex statIndex = statXLookup.bootstrap(group);
+                if (!statIndex.getDuplicateTitles().isEmpty()) {
+                    System.out.println("Several stats share the titles " + statIndex.getDuplicateTitles()
+                            + ", updating the first one of each.");
+                }
+                bootstrapped = true;
+            }
+
+            Map<String, Double> samples = new HashMap<>();
+            for (String statTitle : latestValues.keySet()) {
+                Double value = latestValues.remove(statTitle);
+                if (value != null) {
+                    samples.put(statTitle, value);
+                }
+            }
+            try {
+                budget -= resolveStatIds(group, samples, budget);
+            } catch (ApiException e) {
+                // Keep the samples for the next flush, unless newer ones arrived meanwhile.
+                putBack(samples);
+                throw e;
+            }
+
+            for (Map.Entry<String, Double> sample : samples.entrySet()) {
+                NumberStat numberStat = new NumberStat();
+                numberStat.rawValue(sample.getValue());
+                publishQueue.offer(group.getId(), statIds.get(sample.getKey()), numberStat, sample.getValue());
+            }
+        }
+        int sent;
+        try {
+            sent = publishQueue.publish(statXLookup.getStatsApi(), budget);
+        } catch (ApiException e) {
+            if (e.getCode() == PublishQueue.NOT_FOUND) {
+                // A stat was deleted in the app. List the group again and look the titles up
+                // once more, so the deleted stat is created with its next sample.
+                statXLookup.invalidate(statXLookup.findOrCreateGroup(GROUP_NAME));
+                statIds.clear();
+                bootstrapped = false;
+            }
+            throw e;
+        }
+        if ((sent > 0) || (budget < writesPerSecond)) {
+            System.out.println("Created " + (writesPerSecond - budget) + " stats, sent " + sent + " updates, "
+                    + publishQueue.size() + " pending at: " + new Date(System.currentTimeMillis()));
+        }
+    }
+
+    // Finds the ids of the stats seen for the first time, and creates up to createBudget of
+    // the missing ones in the group, several at a time. Afterwards samples only holds the
+    // samples of known stats that still need an update: the samples of created stats went
+    // out with the create, and those of stats not created yet wait for the next flush. Titles
+    // the api refuses to create are dropped for good, and still count towards MAX_STATS so
+    // that they are bounded too. Returns the number of creates sent.
+    private int resolveStatIds(Group group, Map<String, Double> samples, int createBudget)
+            throws ApiException {
+        List<Stat> newStats = new ArrayList<>();
+        Map<String, Double> deferred = new HashMap<>();
+        for (Map.Entry<String, Double> sample : samples.entrySet()) {
+            if (statIds.containsKey(sample.getKey())) {
+                continue;
+            }
+            Stat stat = statXLookup.findStat(group, sample.getKey());
+            if (stat != null) {
+                statIds.put(sample.getKey(), stat.getId());
+                publishQueue.seed(group.getId(), stat.getId(), null, stat.getLastUpdatedDateTime());
+            } else if (newStats.size() < createBudget) {
+                NumberStat numberStat = new NumberStat();
+                numberStat.setTitle(sample.getKey());
+                numberStat.setVisualType(Stat.VisualTypeEnum.NUMBER);
+                numberStat.setGroupName(GROUP_NAME);
+                numberStat.rawValue(sample.getValue());
+                newStats.add(numberStat);
+            } else {
+                deferred.put(sample.getKey(), sample.getValue());
+            }
+        }
+        samples.keySet().removeAll(deferred.keySet());
+        putBack(deferred);
+        if (newStats.isEmpty()) {
+            return 0;
+        }
+        StatXLookup.CreateResult result = statXLookup.createMissingStats(group, newStats, CREATE_PARALLELISM);
+        int creates = newStats.size();
+        for (Map.Entry<String, Stat> stat : result.getStats().entrySet()) {
+            if (result.getCreatedTitles().contains(stat.getKey())) {
+                Double value = samples.remove(stat.getKey());
+                if ((stat.getValue() != null) && (stat.getValue().getId() != null)) {
+                    statIds.put(stat.getKey(), stat.getValue().getId());
+                    publishQueue.seed(group.getId(), stat.getValue().getId(), value,
+                            new Date(System.currentTimeMillis()));
+                }
+            } else {
+                // Someone else created the stat after the group was listed. Its value is not
+                // this sample, so the sample is queued like the ones of other known stats.
+                statIds.put(stat.getKey(), stat.getValue().getId());
+                publishQueue.seed(group.getId(), stat.getValue().getId(), null,
+                        stat.getValue().getLastUpdatedDateTime());
+                creates--;
+            }
+        }
+        Map<String, Double> retries = new HashMap<>();
+        for (Map.Entry<String, ApiException> failure : result.getFailures().entrySet()) {
+            Double value = samples.remove(failure.getKey());
+            if (isRejected(failure.getValue())) {
+                rejectedTitles.add(failure.getKey());
+                System.out.println("Dropping the samples of " + failure.getKey() + ", the stat cannot be created: "
+                        + failure.getValue().getMessage());
+            } else {
+                System.out.println("Could not create " + failure.getKey() + ", retrying on the next flush: "
+                        + failure.getValue().getMessage());
+                retries.put(failure.getKey(), value);
+            }
+        }
+        putBack(retries);
+        return creates;
+    }
+
+    // Whether the api refused the stat itself (a 400 for instance), so creating it again would
+    // fail the same way. Network, server, auth and rate limit errors are retried.
+    private static boolean isRejected(ApiException e) {
+        return (e.getCode() >= 400) && (e.getCode() < 500) && !TRANSIENT_CREATE_ERRORS.contains(e.getCode());
+    }
+
+    private void putBack(Map<String, Double> samples) {
+        for (Map.Entry<String, Double> sample : samples.entrySet()) {
+            latestValues.putIfAbsent(sample.getKey(), sample.getValue());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits stat feeds across several publisher instances so that each stat is published by
+ * exactly one of them.
+ *
+ * Every instance runs the same list of feeds and only publishes the ones it owns. Instances
+ * find each other through lease files in a shared directory: each instance writes
+ * {@code <instanceId>.lease} with the current time and a digest of its feeds on every
+ * {@link #refresh()}, and an instance counts as alive while its lease is younger than the lease
+ * period. A live instance with other feeds would never publish the feeds assigned to it that it
+ * does not run, so {@link #refresh()} refuses to shard until the feeds match. Feeds are
+ * assigned to the live instances with a {@link ConsistentHashRing}, so when an instance joins
+ * or leaves only about 1/N of the feeds move.
+ *
+ * Handoff: an instance stops publishing a feed as soon as it sees that the feed moved away.
+ * An instance that gains a feed from a live instance waits one lease period before publishing
+ * it, which gives the previous owner time to see the change on its own refresh. Changes during
+ * that period extend the wait, and ownership keeps being compared with the members from before
+ * the first change. Feeds of an
+ * instance that left are taken over right away. Instances must therefore refresh more often
+ * than once per lease period.
+ */
+public class ShardCoordinator {
+
+    private static final String LEASE_SUFFIX = ".lease";
+
+    private final Path leaseDirectory;
+    private final String instanceId;
+    private final String feedsDigest;
+    private final long leaseMillis;
+
+    private ConsistentHashRing ring;
+    private ConsistentHashRing previousRing;
+    private long membershipChangedAtMillis;
+    private long refreshedAtMillis;
+
+    /**
+     * @param leaseDirectory directory shared by all the instances.
+     * @param instanceId unique id of this instance. Used as the lease file name.
+     * @param feeds all the feeds. Every instance sharing the directory must be given the same ones.
+     * @param leasePeriod how long a lease lasts without being renewed.
+     * @param unit the unit of {@code leasePeriod}.
+     */
+    public ShardCoordinator(Path leaseDirectory, String instanceId, Collection<String> feeds,
+                            long leasePeriod, TimeUnit unit) {
+        this.leaseDirectory = leaseDirectory;
+        this.instanceId = instanceId;
+        this.feedsDigest = digest(feeds);
+        this.leaseMillis = unit.toMillis(leasePeriod);
+    }
+
+    /**
+     * @return an id for this process, from {@code <pid>@<hostname>}, unique among the processes
+     * sharing a lease directory.
+     */
+    public static String getProcessInstanceId() {
+        return ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9.-]", "-");
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Renews the lease of this instance and reads the current members.
+     *
+     * @throws IllegalStateException if a live instance runs other feeds. The lease of this
+     *                               instance is not renewed then.
+     */
+    public synchronized void refresh() throws IOException {
+        long now = System.currentTimeMillis();
+        Files.createDirectories(leaseDirectory);
+
+        Set<String> members = new HashSet<>();
+        members.add(instanceId);
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(leaseDirectory, "*" + LEASE_SUFFIX)) {
+            for (Path lease : leases) {
+                String fileName = lease.getFileName().toString();
+                String member = fileName.substring(0, fileName.length() - LEASE_SUFFIX.length());
+                Lease content = readLease(lease);
+                if (member.equals(instanceId) || content == null || now - content.renewedAtMillis >= leaseMillis) {
+                    continue;
+                }
+                if (!feedsDigest.equals(content.feedsDigest)) {
+                    throw new IllegalStateException("Instance " + member + " in " + leaseDirectory
+                            + " runs other feeds. All the instances sharing it must run the same feeds.");
+                }
+                members.add(member);
+            }
+        }
+        writeLease(now);
+
+        if (ring == null || now - refreshedAtMillis >= leaseMillis) {
+            // First refresh, or our lease expired and the others may have taken over our feeds.
+            // If other instances are running they own every feed for now, so wait like for any
+            // other feed we gain.
+            previousRing = (members.size() == 1)
+                    ? null : new ConsistentHashRing(Collections.<String>emptySet());
+            ring = new ConsistentHashRing(members);
+            membershipChangedAtMillis = now;
+            System.out.println("Shard members: " + ring.getMembers());
+        } else if (!members.equals(ring.getMembers())) {
+            // During a handoff the current ring has not taken effect yet: instances may still
+            // be waiting for feeds of the previous one. Keep comparing with the previous ring
+            // until the handoff is over, so a second change cannot skip the wait.
+            if (previousRing == null || now - membershipChangedAtMillis >= leaseMillis) {
+                previousRing = ring;
+            }
+            ring = new ConsistentHashRing(members);
+            membershipChangedAtMillis = now;
+            System.out.println("Shard members: " + ring.getMembers());
+        }
+        refreshedAtMillis = now;
+    }
+
+    /**
+     * @return whether this instance should publish {@code feed} now. Always false before the
+     * first {@link #refresh()} and once the lease of this instance expired.
+     */
+    public synchronized boolean owns(String feed) {
+        long now = System.currentTimeMillis();
+        if (ring == null || now - refreshedAtMillis >= leaseMillis || !instanceId.equals(ring.ownerOf(feed))) {
+            return false;
+        }
+        if (previousRing == null || now - membershipChangedAtMillis >= leaseMillis) {
+            return true;
+        }
+        // The membership changed recently. Keep the feeds we already had and the ones whose
+        // previous owner left, and wait for the previous owner to let go of the others.
+        String previousOwner = previousRing.ownerOf(feed);
+        return instanceId.equals(previousOwner)
+                || (previousOwner != null && !ring.getMembers().contains(previousOwner));
+    }
+
+    /**
+     * Removes the lease of this instance so the others take over its feeds without waiting
+     * for the lease to expire.
+     */
+    public synchronized void leave() throws IOException {
+        Files.deleteIfExists(leaseFile());
+    }
+
+    /**
+     * Calls {@link #leave()} when the JVM shuts down.
+     */
+    public void leaveOnExit() {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    leave();
+                } catch (IOException e) {
+                    // The lease expires on its own.
+                }
+            }
+        });
+    }
+
+    private Path leaseFile() {
+        return leaseDirectory.resolve(instanceId + LEASE_SUFFIX);
+    }
+
+    private void writeLease(long now) throws IOException {
+        // Write to a temporary file and move it in place, so readers never see a partial lease.
+        Path temporary = leaseDirectory.resolve(instanceId + LEASE_SUFFIX + ".tmp");
+        Files.write(temporary, (now + " " + feedsDigest).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, leaseFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Lease readLease(Path lease) throws IOException {
+        try {
+            String[] fields = new String(Files.readAllBytes(lease), StandardCharsets.UTF_8).trim().split(" ");
+            return new Lease(Long.parseLong(fields[0]), (fields.length > 1) ? fields[1] : "");
+        } catch (NoSuchFileException | NumberFormatException e) {
+            // The instance left, or the file is not a lease.
+            return null;
+        }
+    }
+
+    // Identifies the set of feeds, whatever their order.
+    private static String digest(Collection<String> feeds) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            for (String feed : new TreeSet<>(feeds)) {
+                md5.update(feed.getBytes(StandardCharsets.UTF_8));
+                md5.update((byte) 0);
+            }
+            return new BigInteger(1, md5.digest()).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The content of a lease file.
+    private static class Lease {
+        final long renewedAtMillis;
+        final String feedsDigest;
+
+        Lease(long renewedAtMillis, String feedsDigest) {
+            this.renewedAtMillis = renewedAtMillis;
+            this.feedsDigest = feedsDigest;
+        }
+    }
+}
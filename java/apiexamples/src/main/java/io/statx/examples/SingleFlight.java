@@ -0,0 +1,63 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls that share the same key into a single execution.
+ *
+ * The first caller for a key runs the work on its own thread. Every caller that arrives
+ * with the same key while that work is still running waits for it and gets the same result
+ * (or the same failure). Once the work completes the key is released, so the next call
+ * runs again and sees fresh data.
+ *
+ * @param <K> the key type.
+ * @param <V> the result type.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs {@code work} for {@code key}, or joins the call already in flight for that key.
+     *
+     * @param key identifies the call. Calls with equal keys are coalesced.
+     * @param work the work to run if no call is in flight for {@code key}.
+     * @return the result of the work.
+     * @throws ExecutionException if the work threw. The original exception is the cause.
+     * @throws InterruptedException if the current thread was interrupted while waiting.
+     */
+    public V execute(K key, Callable<V> work) throws ExecutionException, InterruptedException {
+        FutureTask<V> task = new FutureTask<>(work);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            // Someone else is already doing the work. Wait for their result.
+            return existing.get();
+        }
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return task.get();
+    }
+
+    /**
+     * @return the number of keys with a call in flight.
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.model.Stat;
+import io.statx.rest.model.StatList;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The stats of a group indexed by title, built from a single listing of the group.
+ *
+ * Note: The stat title is not unique. When several stats share a title the first one listed
+ * is indexed and the title is reported by {@link #getDuplicateTitles()}.
+ */
+public class StatIndex {
+
+    private final ConcurrentMap<String, Stat> statsByTitle = new ConcurrentHashMap<>();
+    private final Set<String> duplicateTitles =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param statList the stats of the group, as returned by {@code StatsApi.getStats}.
+     */
+    public StatIndex(StatList statList) {
+        if ((statList != null) && (statList.getData() != null)) {
+            for (Stat stat : statList.getData()) {
+                if ((stat.getTitle() != null) && (statsByTitle.putIfAbsent(stat.getTitle(), stat) != null)) {
+                    duplicateTitles.add(stat.getTitle());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the stat with the title, or null if there is none.
+     */
+    public Stat get(String title) {
+        return statsByTitle.get(title);
+    }
+
+    /**
+     * Adds a stat created after the group was listed.
+     */
+    public void put(String title, Stat stat) {
+        statsByTitle.putIfAbsent(title, stat);
+    }
+
+    /**
+     * @return the titles shared by more than one stat of the group.
+     */
+    public Set<String> getDuplicateTitles() {
+        return Collections.unmodifiableSet(duplicateTitles);
+    }
+
+    public int size() {
+        return statsByTitle.size();
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.ApiException;
+import io.statx.rest.api.GroupsApi;
+import io.statx.rest.api.StatsApi;
+import io.statx.rest.model.*;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Group and stat lookups through the StatX REST API with concurrent identical requests coalesced.
+ *
+ * Several feeds that share a group (for instance "StatX-API-Examples") tend to look it up at the
+ * same moment. Without coordination each one lists the group and, if it is missing, creates it,
+ * which ends up with duplicate requests and sometimes duplicate groups. Here identical reads share
+ * one in-flight request, and find-or-create calls for the same group name (or the same stat title
+ * within a group) run one at a time, so only the first one creates and the rest get its result.
+ *
+ * For groups with many stats, {@link #bootstrap(Group)} lists the group once and indexes its
+ * stats by title. Stat lookups in that group are then answered from the index, and
+ * {@link #createMissingStats(Group, Collection, int)} creates the missing ones in parallel.
+ *
+ * Note: This only coordinates callers within one process.
+ */
+public class StatXLookup {
+
+    /**
+     * Outcome of {@link #createMissingStats(Group, Collection, int)}, by stat title.
+     */
+    public static class CreateResult {
+        private final Map<String, Stat> stats = new LinkedHashMap<>();
+        private final Set<String> createdTitles = new HashSet<>();
+        private final Map<String, ApiException> failures = new LinkedHashMap<>();
+
+        /**
+         * @return the stats found or created, by title.
+         */
+        public Map<String, Stat> getStats() {
+            return Collections.unmodifiableMap(stats);
+        }
+
+        /**
+         * @return the titles of the stats created by this call. The other stats already existed.
+         */
+        public Set<String> getCreatedTitles() {
+            return Collections.unmodifiableSet(createdTitles);
+        }
+
+        /**
+         * @return the errors of the stats that could be neither found nor created, by title.
+         */
+        public Map<String, ApiException> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+    }
+
+    private final GroupsApi groupsApi;
+    private final StatsApi statsApi;
+
+    private final SingleFlight<String, GroupList> groupListFlight = new SingleFlight<>();
+    private final SingleFlight<String, StatList> statListFlight = new SingleFlight<>();
+    private final SingleFlight<String, Group> groupFlight = new SingleFlight<>();
+    private final SingleFlight<String, FoundStat> statFlight = new SingleFlight<>();
+
+    // Stat indexes of the bootstrapped groups, by group id.
+    private final Map<String, StatIndex> statIndexes = new ConcurrentHashMap<>();
+
+    public StatXLookup(GroupsApi groupsApi, StatsApi statsApi) {
+        this.groupsApi = groupsApi;
+        this.statsApi = statsApi;
+    }
+
+    public GroupsApi getGroupsApi() {
+        return groupsApi;
+    }
+
+    public StatsApi getStatsApi() {
+        return statsApi;
+    }
+
+    /**
+     * Same as {@link GroupsApi#getGroups(String)}.
+     */
+    public GroupList getGroups(final String groupName) throws ApiException {
+        return await(groupListFlight, groupName, new Callable<GroupList>() {
+            @Override
+            public GroupList call() throws ApiException {
+                return groupsApi.getGroups(groupName);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link StatsApi#getStats(String, String)}.
+     */
+    public StatList getStats(final String groupName, final String statTitle) throws ApiException {
+        return await(statListFlight, key(groupName, statTitle), new Callable<StatList>() {
+            @Override
+            public StatList call() throws ApiException {
+                return statsApi.getStats(groupName, statTitle);
+            }
+        });
+    }
+
+    /**
+     * Finds the group by name. If the group does not exist then it is created.
+     *
+     * @param groupName the name of the group.
+     * @return the first group with that name, or the newly created group.
+     */
+    public Group findOrCreateGroup(final String groupName) throws ApiException {
+        return await(groupFlight, groupName, new Callable<Group>() {
+            @Override
+            public Group call() throws ApiException {
+                // Ask the api directly. A coalesced listing may have started before another
+                // caller created the group, and would wrongly report it missing.
+                GroupList groupList = groupsApi.getGroups(groupName);
+                if ((groupList == null) || (groupList.getData() == null) || (groupList.getData().isEmpty())) {
+                    // The group does not exist. Let's create one. Since we are creating the group
+                    // the api will add the current user as a member and admin of the group.
+                    Group group = new Group();
+                    group.setName(groupName);
+                    return groupsApi.createGroup(group);
+                }
+                // Pick the first group (should be the only one).
+                return groupList.getData().get(0);
+            }
+        });
+    }
+
+    /**
+     * Lists all the stats of the group in one call and indexes them by title. Later lookups
+     * of stats in this group use the index instead of asking the api for each title.
+     *
+     * Note: {@link StatList} has no paging fields, so the listing holds every stat of the group.
+     * Should a stat still be missing from the index, {@link #findOrCreateStat(Group, Stat)} asks
+     * the api before creating it. Call {@link #invalidate(Group)} and bootstrap again when an
+     * update of an indexed stat is not found.
+     *
+     * @param group the group to index.
+     * @return the index. Titles shared by several stats are reported as duplicates.
+     */
+    public StatIndex bootstrap(Group group) throws ApiException {
+        StatIndex statIndex = new StatIndex(getStats(group.getName(), null));
+        statIndexes.put(group.getId(), statIndex);
+        return statIndex;
+    }
+
+    /**
+     * Forgets the index of the group, for instance after stats were deleted in the app.
+     */
+    public void invalidate(Group group) {
+        statIndexes.remove(group.getId());
+    }
+
+    /**
+     * Finds the stat by title.
+     *
+     * @return the stat (the first one if several share the title), or null if there is none.
+     */
+    public Stat findStat(Group group, String statTitle) throws ApiException {
+        return findStat(group, statTitle, true);
+    }
+
+    /**
+     * Creates the stats that do not exist yet in a bootstrapped group, several at a time.
+     * A stat that fails does not stop the others: its error is reported in the result.
+     *
+     * @param group the group, indexed with {@link #bootstrap(Group)} first.
+     * @param stats the stats that should exist. Their titles are used to look for them.
+     * @param parallelism how many stats to create at the same time.
+     * @return the stats by title, existing or newly created, and the failures.
+     */
+    public CreateResult createMissingStats(final Group group, Collection<? extends Stat> stats,
+                                           int parallelism) throws ApiException {
+        if (!statIndexes.containsKey(group.getId())) {
+            throw new IllegalStateException("Group " + group.getId() + " was not bootstrapped");
+        }
+        Map<String, Future<FoundStat>> pending = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (final Stat stat : stats) {
+                pending.put(stat.getTitle(), executor.submit(new Callable<FoundStat>() {
+                    @Override
+                    public FoundStat call() throws ApiException {
+                        return findOrCreate(group, stat);
+                    }
+                }));
+            }
+            // The stats created so far are in the index, so a retry of the failed ones only
+            // creates those.
+            CreateResult result = new CreateResult();
+            for (Map.Entry<String, Future<FoundStat>> entry : pending.entrySet()) {
+                try {
+                    FoundStat foundStat = entry.getValue().get();
+                    result.stats.put(entry.getKey(), foundStat.stat);
+                    if (foundStat.created) {
+                        result.createdTitles.add(entry.getKey());
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ApiException) {
+                        result.failures.put(entry.getKey(), (ApiException) e.getCause());
+                    } else {
+                        result.failures.put(entry.getKey(), new ApiException(e.getCause()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ApiException(e);
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Creates the stat in the group unless a stat with the same title already exists.
+     *
+     * The check is made again before creating, so when several callers race to create the
+     * same stat only the first one creates it. In a bootstrapped group the index is checked
+     * first, and the api only when the stat is not in the index.
+     *
+     * @param group the group of the stat.
+     * @param stat the stat to create. Its title is used to look for an existing stat.
+     * @return the existing stat, or the newly created one.
+     */
+    public Stat findOrCreateStat(Group group, Stat stat) throws ApiException {
+        return findOrCreate(group, stat).stat;
+    }
+
+    private FoundStat findOrCreate(final Group group, final Stat stat) throws ApiException {
+        return await(statFlight, key(group.getId(), stat.getTitle()), new Callable<FoundStat>() {
+            @Override
+            public FoundStat call() throws ApiException {
+                Stat existing = findStat(group, stat.getTitle(), false);
+                if (existing != null) {
+                    return new FoundStat(existing, false);
+                }
+                Stat created = statsApi.createStat(group.getId(), stat);
+                StatIndex statIndex = statIndexes.get(group.getId());
+                if ((statIndex != null) && (created != null)) {
+                    statIndex.put(stat.getTitle(), created);
+                }
+                return new FoundStat(created, true);
+            }
+        });
+    }
+
+    // Finds the stat in the index of the group if there is one, or through the api. Lookups
+    // that decide whether to create the stat (coalesce is false) must not be coalesced with
+    // earlier listings, and ask the api when the stat is not in the index.
+    private Stat findStat(Group group, String statTitle, boolean coalesce) throws ApiException {
+        StatIndex statIndex = statIndexes.get(group.getId());
+        if (statIndex != null) {
+            Stat stat = statIndex.get(statTitle);
+            if ((stat != null) || coalesce) {
+                return stat;
+            }
+        }
+        StatList statList = coalesce
+                ? getStats(group.getName(), statTitle)
+                : statsApi.getStats(group.getName(), statTitle);
+        if ((statList == null) || (statList.getData() == null) || (statList.getData().isEmpty())) {
+            return null;
+        }
+        // Pick the first stat (should be the only one).
+        Stat stat = statList.getData().get(0);
+        if (statIndex != null) {
+            statIndex.put(statTitle, stat);
+        }
+        return stat;
+    }
+
+    private static String key(String first, String second) {
+        return first + '\u0000' + second;
+    }
+
+    private static <V> V await(SingleFlight<String, V> flight, String key, Callable<V> work)
+            throws ApiException {
+        try {
+            return flight.execute(key, work);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ApiException) {
+                throw (ApiException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ApiException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
+    // A stat returned by a find-or-create, and whether it was created.
+    private static class FoundStat {
+        final Stat stat;
+        final boolean created;
+
+        FoundStat(Stat stat, boolean created) {
+            this.stat = stat;
+            this.created = created;
+        }
+    }
+}
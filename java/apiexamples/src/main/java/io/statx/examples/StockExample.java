@@ -13,8 +13,8 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import io.statx.rest.ApiException;
 import io.statx.rest.StatXClient;
-import io.statx.rest.api.GroupsApi;
 import io.statx.rest.api.StatsApi;
 import io.statx.rest.model.*;
 import org.apache.http.HttpResponse;
@@ -30,7 +30,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -45,84 +47,153 @@ import java.util.concurrent.TimeUnit;
  *
  * Call it with maven with:
  *  mvn exec:java -Dexec.mainClass="io.statx.examples.StockExample" -Dexec.args="
- *  <ClientName> <Phone Number in international format> <Stat Title> <Update Frequency in Minutes>"
+ *  <ClientName> <Phone Number in international format> <Stat Titles> <Update Frequency in Minutes>
+ *  [Shard Lease Directory]"
+ *
+ * Stat Titles is a comma separated list. Each title gets its own stat with the same quotes, and
+ * all of them are updated from a single call to Yahoo finance per update.
  *
  * For instance:
  * mvn exec:java -Dexec.mainClass="io.statx.examples.StockExample" -Dexec.args="
- * testclient +16509999999 StockExample 2"
+ * testclient +16509999999 "StockExample,StockWallboard" 2"
+ *
+ * To run several copies without publishing a stat twice, give all of them the same stat titles
+ * and the same shard lease directory. Each stat title is then published by only one of the
+ * running copies. A copy given other stat titles refuses to start.
  */
 public class StockExample {
 
+    private static final String STOCK_QUOTES_SOURCE = "yahoo-quotes";
+    private static final String STOCK_SYMBOLS = "\"AAPL\", \"AMZN\",\"GOOGL\"";
+
+    // The stats updated in the same round share one call to Yahoo finance.
+    private static final UpstreamCache upstreamCache = new UpstreamCache(100, 1, TimeUnit.MINUTES);
+
+    // Bars sent in the last update, to skip updates where no price moved.
+    private static final ItemDeltaTracker itemDeltaTracker = new ItemDeltaTracker();
+
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
             System.out.println("Usage java io.statx.examples.StockExample <ClientName> " +
-                    "<PhoneNumber Int Format> <StatTitle> <FrequencyInMinutes>");
+                    "<PhoneNumber Int Format> <StatTitles> <FrequencyInMinutes> [ShardLeaseDirectory]");
             System.exit(-1);
         }
         String clientName = args[0];
         String phoneNumber = args[1];
-        String statTitle = args[2];
+        List<String> statTitles = new ArrayList<>();
+        for (String statTitle : args[2].split(",")) {
+            if (!statTitle.trim().isEmpty()) {
+                statTitles.add(statTitle.trim());
+            }
+        }
         int frequencyInMinutes = Integer.parseInt(args[3]);
+        ShardCoordinator shardCoordinator =
+                (args.length > 4) ? getShardCoordinator(args[4], statTitles, frequencyInMinutes) : null;
 
         // Lets sign up through the rest API and get an AuthToken. Once you get the credentials
         // you should save them somewhere safe for use at a later time.
         StatXClient statXClient = new StatXClient();
         StatXClient.UserCredential userCredential = statXClient.getCredentials(clientName, phoneNumber);
 
+        StatXLookup statXLookup = new StatXLookup(statXClient.getGroupsApi(userCredential),
+                statXClient.getStatsApi(userCredential));
+
         // Repeat once every <frequency minutes> (see parameter below).
         while (true) {
-
-            // Find the group with the stat. If the group does not exist then create it.
-            //
-            // Note: The group name is not unique. In general it is not a good idea to use the group
-            // name as a key to determine whether the group exists or not. If possible use the
-            // groupid instead.
-            String groupName = "StatX-API-Examples";
-            GroupsApi groupsApi = statXClient.getGroupsApi(userCredential);
-            GroupList groupList = groupsApi.getGroups(groupName);
-            Group group;
-            if ((groupList == null) || (groupList.getData() == null) || (groupList.getData().isEmpty())) {
-                // The group does not exist. Let's create one. Since we are creating the group
-                // the api will add the current user as a member and admin of the group.
-                group = new Group();
-                group.setName(groupName);
-                group = groupsApi.createGroup(group);
-            } else {
-                // Pick the first group (should be the only one).
-                group = groupList.getData().get(0);
+            if (shardCoordinator != null) {
+                shardCoordinator.refresh();
+            }
+            for (String statTitle : statTitles) {
+                // When running sharded, only the copy that owns the stat publishes it.
+                if ((shardCoordinator != null) && !shardCoordinator.owns(statTitle)) {
+                    System.out.println(statTitle + " is published by another instance.");
+                    continue;
+                }
+                updateStat(statXLookup, statTitle);
             }
 
-            // Find the stat by name. If the stat does not exist then create it.
-            //
-            // Note: The stat title is not unique. In general it is not a good idea to use
-            // the stat title as a key to determine whether the stat exists or not. If possible
-            // use the statid instead.
-            StatsApi statsApi = statXClient.getStatsApi(userCredential);
-            StatList statList = statsApi.getStats(group.getName(), statTitle);
-            if ((statList == null) || (statList.getData() == null) || (statList.getData().isEmpty())) {
-                // The stat does not exist. Let's create it.
-                HorizontalBarStat horizontalBarStat = new HorizontalBarStat();
-                horizontalBarStat.setTitle(statTitle);
-                horizontalBarStat.setVisualType(Stat.VisualTypeEnum.HORIZONTAL_BARS);
-                horizontalBarStat.setGroupName(groupName);
-                horizontalBarStat.setItems(getStockInfo());
-                statsApi.createStat(group.getId(), horizontalBarStat);
-            } else {
-                // Pick the first stat (should be the only one) and get the statId from it.
-                String statId = statList.getData().get(0).getId();
+            System.out.println("Last update at: " + new Date(System.currentTimeMillis())
+                    + " upstream cache " + upstreamCache);
+            Thread.sleep(TimeUnit.MINUTES.toMillis(frequencyInMinutes));
+        }
+    }
 
-                // Create the stat to update the value.
+    private static void updateStat(StatXLookup statXLookup, String statTitle)
+            throws ApiException, IOException, URISyntaxException {
+        // Find the group with the stat. If the group does not exist then create it.
+        //
+        // Note: The group name is not unique. In general it is not a good idea to use the group
+        // name as a key to determine whether the group exists or not. If possible use the
+        // groupid instead.
+        String groupName = "StatX-API-Examples";
+        Group group = statXLookup.findOrCreateGroup(groupName);
+
+        // Find the stat by name. If the stat does not exist then create it.
+        //
+        // Note: The stat title is not unique. In general it is not a good idea to use
+        // the stat title as a key to determine whether the stat exists or not. If possible
+        // use the statid instead.
+        StatsApi statsApi = statXLookup.getStatsApi();
+        StatList statList = statXLookup.getStats(group.getName(), statTitle);
+        if ((statList == null) || (statList.getData() == null) || (statList.getData().isEmpty())) {
+            // The stat does not exist. Let's create it.
+            HorizontalBarStat horizontalBarStat = new HorizontalBarStat();
+            horizontalBarStat.setTitle(statTitle);
+            horizontalBarStat.setVisualType(Stat.VisualTypeEnum.HORIZONTAL_BARS);
+            horizontalBarStat.setGroupName(groupName);
+            horizontalBarStat.setItems(getStockInfo());
+            statXLookup.findOrCreateStat(group, horizontalBarStat);
+        } else {
+            // Pick the first stat (should be the only one) and get the statId from it.
+            String statId = statList.getData().get(0).getId();
+
+            // Create the stat to update the value. The api replaces all the bars, so
+            // they are all sent when at least one moved, and nothing is sent otherwise.
+            List<HorizontalBarItem> items = getStockInfo();
+            ItemDeltaTracker.Delta delta = itemDeltaTracker.diffHorizontalBars(statId, items);
+            if (delta.isEmpty()) {
+                System.out.println("No price moved since the last update of " + statTitle + ".");
+            } else {
                 HorizontalBarStat horizontalBarStat = new HorizontalBarStat();
-                horizontalBarStat.setItems(getStockInfo());
+                horizontalBarStat.setItems(items);
                 horizontalBarStat.setLastUpdatedDateTime(new Date(System.currentTimeMillis()));
                 statsApi.updateStat(group.getId(), statId, horizontalBarStat);
+                // Only remember the bars once they were sent, so a failed update is sent again.
+                itemDeltaTracker.commit(delta);
+                System.out.println("Updated " + statTitle + ": " + delta);
             }
-
-            System.out.println("Last update at: " + new Date(System.currentTimeMillis()));
-            Thread.sleep(TimeUnit.MINUTES.toMillis(frequencyInMinutes));
         }
     }
 
+    /**
+     * Join the instances sharing the lease directory. The lease lasts three update periods so
+     * that a late update does not make the others take over the stat.
+     */
+    private static ShardCoordinator getShardCoordinator(String leaseDirectory, List<String> statTitles,
+                                                        int frequencyInMinutes) {
+        ShardCoordinator shardCoordinator = new ShardCoordinator(Paths.get(leaseDirectory),
+                ShardCoordinator.getProcessInstanceId(), statTitles, 3 * frequencyInMinutes, TimeUnit.MINUTES);
+        // Hand the stats over right away on exit.
+        shardCoordinator.leaveOnExit();
+        return shardCoordinator;
+    }
+
+    /**
+     * Get a few stocks from the upstream cache, or from Yahoo finance if they are not cached.
+     * @return a {@code List<HorizontalBarItem} with the details of the stock prices. The list is
+     * shared with the other stats and cannot be modified.
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    private static List<HorizontalBarItem> getStockInfo() throws IOException, URISyntaxException {
+        return upstreamCache.get(STOCK_QUOTES_SOURCE, STOCK_SYMBOLS,
+                new UpstreamCache.Loader<List<HorizontalBarItem>>() {
+                    @Override
+                    public List<HorizontalBarItem> load() throws IOException, URISyntaxException {
+                        return Collections.unmodifiableList(fetchStockInfo());
+                    }
+                });
+    }
 
     /**
      * Fetch a few stocks from Yahoo finance.
@@ -130,7 +201,7 @@ public class StockExample {
      * @throws IOException
      * @throws URISyntaxException
      */
-    private static List<HorizontalBarItem> getStockInfo() throws IOException, URISyntaxException {
+    private static List<HorizontalBarItem> fetchStockInfo() throws IOException, URISyntaxException {
         List<HorizontalBarItem> results = new ArrayList<>();
         int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
         RequestConfig config = RequestConfig.custom()
@@ -145,7 +216,7 @@ public class StockExample {
         URIBuilder uriBuilder = new URIBuilder();
         uriBuilder.setScheme("https").setHost("query.yahooapis.com").setPath("/v1/public/yql");
         uriBuilder.addParameter("q", "select * from yahoo.finance.quotes where symbol in(" +
-                "\"AAPL\", \"AMZN\",\"GOOGL\")");
+                STOCK_SYMBOLS + ")");
         uriBuilder.addParameter("format","json");
         uriBuilder.addParameter("env", "store://datatables.org/alltableswithkeys");
         URI uri = uriBuilder.build();
@@ -14,8 +14,6 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import io.statx.rest.ApiException;
 import io.statx.rest.StatXClient;
-import io.statx.rest.api.GroupsApi;
-import io.statx.rest.api.StatsApi;
 import io.statx.rest.model.*;
 import org.apache.http.ConnectionReuseStrategy;
 import org.apache.http.HttpResponse;
@@ -34,6 +32,7 @@ import java.io.Console;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -52,6 +51,11 @@ import java.util.concurrent.TimeUnit;
  *
  * It will keep updating the stats in the StatX app every 15 minutes.
  *
+ * To run several copies without publishing a stat twice, give all of them the same shard lease
+ * directory as the only argument:
+ * mvn exec:java -Dexec.mainClass="io.statx.examples.TestStatus" -Dexec.args="<Shard Lease Directory>"
+ * Each of the 3 stats is then published by only one of the running copies.
+ *
  * The TESLA REST API is unofficial and unsupported by Tesla.
  *
  * The TESLA REST API code in this example is based on the documentation in the following site:
@@ -71,6 +75,12 @@ public class TeslaStatus {
     private static final String BATTERY_LEVEL_STAT_TITLE = "Battery Level";
     private static final String BATTERY_RANGE_STAT_TITLE = "Range";
     private static final String BATTERY_CHARGING_STAT_TITLE = "Charging State";
+    private static final List<String> STAT_TITLES = Arrays.asList(
+            BATTERY_LEVEL_STAT_TITLE, BATTERY_RANGE_STAT_TITLE, BATTERY_CHARGING_STAT_TITLE);
+
+    // How many stat updates to send per cycle. Lower this if the StatX write budget is shared
+    // with other feeds: the updates that changed the most, or waited the longest, go first.
+    private static final int WRITES_PER_CYCLE = 3;
 
     private static final StatXClient statXClient = new StatXClient();
     public static final String SCHEME = "https";
@@ -81,8 +91,20 @@ public class TeslaStatus {
     private StatXClient.UserCredential userCredential =
             new StatXClient.UserCredential("<StatXAPIKey>", "<StatXAuthToken>");
 
+    // A charging state flip (or a 100% change) weighs as much as an hour without an update.
+    private final PublishQueue publishQueue = new PublishQueue(60, 1);
+    // Null unless running sharded.
+    private ShardCoordinator shardCoordinator;
+
     public static void main (String args[]) throws Exception {
         TeslaStatus TeslaStatus = new TeslaStatus();
+        if (args.length > 0) {
+            // The lease lasts three update periods so that a late update does not make the
+            // others take over the stats.
+            TeslaStatus.shardCoordinator = new ShardCoordinator(Paths.get(args[0]),
+                    ShardCoordinator.getProcessInstanceId(), STAT_TITLES, 45, TimeUnit.MINUTES);
+            TeslaStatus.shardCoordinator.leaveOnExit();
+        }
         fromCli(TeslaStatus);
     }
 
@@ -104,36 +126,58 @@ public class TeslaStatus {
 
     private void update(String userEmail, String password)
             throws IOException, URISyntaxException, InterruptedException, ApiException {
-        StatsApi statsApi = statXClient.getStatsApi(userCredential);
+        StatXLookup statXLookup = new StatXLookup(statXClient.getGroupsApi(userCredential),
+                statXClient.getStatsApi(userCredential));
         String authToken = getAuthToken(CLIENT_ID_FOR_TESLA_MOTORS, CLIENT_SECRET_FOR_TESLA_MOTORS,
                 GRANT_TYPE_PASSWORD, userEmail, password);
         if (!authToken.isEmpty()) {
             String vehicleId = getVehicleId(authToken);
             if (!vehicleId.isEmpty()) {
+                boolean bootstrapped = false;
                 while (true) {
-                    GroupsApi groupsApi = statXClient.getGroupsApi(userCredential);
-                    GroupList groupList = groupsApi.getGroups(GROUP_NAME);
-                    Group group;
-                    if ((groupList == null) || (groupList.getData() == null) || (groupList.getData().isEmpty())) {
-                        // The group does not exist. Let's create one. Since we are creating the group
-                        // the api will add the current user as a member and admin of the group.
-                        group = new Group();
-                        group.setName(GROUP_NAME);
-                        group = groupsApi.createGroup(group);
-                    } else {
-                        // Pick the first group (should be the only one).
-                        group = groupList.getData().get(0);
+                    Group group = statXLookup.findOrCreateGroup(GROUP_NAME);
+                    if (!bootstrapped) {
+                        // List the stats of the group once. The stats are then found by
+                        // title without asking the api on every update.
+                        statXLookup.bootstrap(group);
+                        bootstrapped = true;
+                        // Stats updated a while ago go first, also after a restart.
+                        for (String statTitle : STAT_TITLES) {
+                            Stat stat = statXLookup.findStat(group, statTitle);
+                            if (stat != null) {
+                                publishQueue.seed(group.getId(), stat.getId(), null, stat.getLastUpdatedDateTime());
+                            }
+                        }
                     }
 
+                    if (shardCoordinator != null) {
+                        shardCoordinator.refresh();
+                    }
                     BatteryDetails batteryDetails = getVehicleChargeState(authToken, vehicleId);
                     if (batteryDetails != null) {
-                        // Update the 3 stats.
-                        updateBatteryLevel(statsApi, group, batteryDetails.getBatteryLevel());
-
-                        updateBatteryRange(statsApi, group, batteryDetails.getBatteryRange(),
-                                batteryDetails.getIdealBatteryRange());
-
-                        updateBatteryChargingState(statsApi, group, batteryDetails.getChargingState());
+                        // Queue the updates of the 3 stats, or of the ones this copy owns.
+                        if (owns(BATTERY_LEVEL_STAT_TITLE)) {
+                            updateBatteryLevel(statXLookup, group, batteryDetails.getBatteryLevel());
+                        }
+                        if (owns(BATTERY_RANGE_STAT_TITLE)) {
+                            updateBatteryRange(statXLookup, group, batteryDetails.getBatteryRange(),
+                                    batteryDetails.getIdealBatteryRange());
+                        }
+                        if (owns(BATTERY_CHARGING_STAT_TITLE)) {
+                            updateBatteryChargingState(statXLookup, group, batteryDetails.getChargingState());
+                        }
+                    }
+                    // Send the most important updates first.
+                    try {
+                        publishQueue.publish(statXLookup.getStatsApi(), WRITES_PER_CYCLE);
+                    } catch (ApiException e) {
+                        if (e.getCode() != PublishQueue.NOT_FOUND) {
+                            throw e;
+                        }
+                        // A stat was deleted in the app. List the group again on the next
+                        // round, which creates the missing stat.
+                        statXLookup.invalidate(group);
+                        bootstrapped = false;
                     }
                     System.out.println("Last update at: " + new Date(System.currentTimeMillis()));
                     // Update the stats every 15 minutes.
@@ -143,37 +187,35 @@ public class TeslaStatus {
         }
     }
 
-    private void updateBatteryLevel(StatsApi statsApi, Group group, String batteryLevel)
+    private void updateBatteryLevel(StatXLookup statXLookup, Group group, String batteryLevel)
             throws ApiException {
-        StatList statList = statsApi.getStats(group.getName(), BATTERY_LEVEL_STAT_TITLE);
+        Stat stat = statXLookup.findStat(group, BATTERY_LEVEL_STAT_TITLE);
         if (batteryLevel != null) {
-            if ((statList == null) || (statList.getData() == null) || (statList.getData().isEmpty())) {
+            if (stat == null) {
                 // The stat does not exist. Let's create it.
                 DialerStat dialerStat = new DialerStat();
                 dialerStat.setTitle(BATTERY_LEVEL_STAT_TITLE);
                 dialerStat.setVisualType(Stat.VisualTypeEnum.DIALER);
                 dialerStat.setGroupName(GROUP_NAME);
                 dialerStat.setValue(batteryLevel);
-                statsApi.createStat(group.getId(), dialerStat);
+                statXLookup.findOrCreateStat(group, dialerStat);
             } else {
-                // Pick the first stat (should be the only one) and get the statId from it.
-                String statId = statList.getData().get(0).getId();
+                String statId = stat.getId();
 
-                // Update the stat value.
+                // Queue the update of the stat value.
                 DialerStat dialerStat = new DialerStat();
                 dialerStat.setValue(batteryLevel);
-                dialerStat.setLastUpdatedDateTime(new Date(System.currentTimeMillis()));
-                statsApi.updateStat(group.getId(), statId, dialerStat);
+                publishQueue.offer(group.getId(), statId, dialerStat, Double.valueOf(batteryLevel));
             }
         }
     }
 
-    private void updateBatteryRange(StatsApi statsApi, Group group,
+    private void updateBatteryRange(StatXLookup statXLookup, Group group,
                                     String batteryRange, String idealBatteryRange)
             throws ApiException {
-        StatList statList = statsApi.getStats(group.getName(), BATTERY_RANGE_STAT_TITLE);
+        Stat stat = statXLookup.findStat(group, BATTERY_RANGE_STAT_TITLE);
         if (batteryRange != null) {
-            if ((statList == null) || (statList.getData() == null) || (statList.getData().isEmpty())) {
+            if (stat == null) {
                 // The stat does not exist. Let's create it.
                 RangeStat rangeStat = new RangeStat();
                 rangeStat.setTitle(BATTERY_RANGE_STAT_TITLE);
@@ -184,25 +226,23 @@ public class TeslaStatus {
                     rangeStat.setMaxValue(idealBatteryRange);
                 }
                 rangeStat.setRawValue(Double.parseDouble(batteryRange));
-                statsApi.createStat(group.getId(), rangeStat);
+                statXLookup.findOrCreateStat(group, rangeStat);
             } else {
-                // Pick the first stat (should be the only one) and get the statId from it.
-                String statId = statList.getData().get(0).getId();
+                String statId = stat.getId();
 
-                // Update the stat value.
+                // Queue the update of the stat value.
                 RangeStat rangeStat = new RangeStat();
                 rangeStat.setRawValue(Double.parseDouble(batteryRange));
-                rangeStat.setLastUpdatedDateTime(new Date(System.currentTimeMillis()));
-                statsApi.updateStat(group.getId(), statId, rangeStat);
+                publishQueue.offer(group.getId(), statId, rangeStat, Double.valueOf(batteryRange));
             }
         }
     }
 
-    private void updateBatteryChargingState(StatsApi statsApi, Group group, String chargingState)
+    private void updateBatteryChargingState(StatXLookup statXLookup, Group group, String chargingState)
             throws ApiException {
-        StatList statList = statsApi.getStats(group.getName(), BATTERY_CHARGING_STAT_TITLE);
+        Stat stat = statXLookup.findStat(group, BATTERY_CHARGING_STAT_TITLE);
         if (chargingState != null) {
-            if ((statList == null) || (statList.getData() == null) || (statList.getData().isEmpty())) {
+            if (stat == null) {
                 // The stat does not exist. Let's create it.
                 PicklistStat picklistStat = new PicklistStat();
                 picklistStat.setTitle(BATTERY_CHARGING_STAT_TITLE);
@@ -211,21 +251,23 @@ public class TeslaStatus {
                 picklistStat.setGroupName(GROUP_NAME);
                 picklistStat.setItems(getPicklistItems());
                 picklistStat.setCurrentIndex(getPicklistIndex(chargingState));
-                statsApi.createStat(group.getId(), picklistStat);
+                statXLookup.findOrCreateStat(group, picklistStat);
             } else {
-                // Pick the first stat (should be the only one) and get the statId from it.
-                String statId = statList.getData().get(0).getId();
+                String statId = stat.getId();
 
-                // Update the stat value.
+                // Queue the update of the stat value.
                 PicklistStat picklistStat = new PicklistStat();
                 picklistStat.setItems(getPicklistItems());
                 picklistStat.setCurrentIndex(getPicklistIndex(chargingState));
-                picklistStat.setLastUpdatedDateTime(new Date(System.currentTimeMillis()));
-                statsApi.updateStat(group.getId(), statId, picklistStat);
+                publishQueue.offer(group.getId(), statId, picklistStat, chargingState);
             }
         }
     }
 
+    private boolean owns(String statTitle) {
+        return (shardCoordinator == null) || shardCoordinator.owns(statTitle);
+    }
+
     private int getPicklistIndex(String state) {
         BatteryState batteryState = BatteryState.get(state);
         if (batteryState == null) {
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of decoded upstream values (stock quotes, vehicle charge state, ...) so that
+ * several stats tracking the same symbol or the same vehicle share one HTTP call.
+ *
+ * Values are keyed by source (for instance "yahoo-quotes") and entity (for instance the
+ * symbols). Each source has its own time to live. When the cache holds more than the maximum
+ * number of entries the least recently used one is evicted. A key that is read often is
+ * reloaded in the background shortly before it expires, so its readers keep hitting the cache.
+ * Concurrent misses for the same key share one load.
+ */
+public class UpstreamCache {
+
+    /**
+     * Loads a value from upstream.
+     */
+    public interface Loader<V> {
+        V load() throws IOException, URISyntaxException;
+    }
+
+    // Reads of an entry after which it counts as hot and is refreshed ahead of expiry.
+    private static final int HOT_HITS = 2;
+    // Fraction of the time to live after which a hot entry is refreshed.
+    private static final double REFRESH_AHEAD_FRACTION = 0.8;
+
+    private final int maxEntries;
+    private final long defaultTtlMillis;
+    private final Map<String, Long> ttlMillisBySource = new ConcurrentHashMap<>();
+    private final SingleFlight<String, Object> loads = new SingleFlight<>();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "upstream-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    // Access ordered, so the eldest entry is the least recently used one.
+    private final LinkedHashMap<String, CachedValue> entries =
+            new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                    if (size() > maxEntries) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /**
+     * @param maxEntries the maximum number of values kept.
+     * @param defaultTtl how long values stay fresh for sources without their own time to live.
+     * @param unit the unit of {@code defaultTtl}.
+     */
+    public UpstreamCache(int maxEntries, long defaultTtl, TimeUnit unit) {
+        this.maxEntries = maxEntries;
+        this.defaultTtlMillis = unit.toMillis(defaultTtl);
+    }
+
+    /**
+     * Sets how long the values of {@code source} stay fresh.
+     */
+    public void setTtl(String source, long ttl, TimeUnit unit) {
+        ttlMillisBySource.put(source, unit.toMillis(ttl));
+    }
+
+    /**
+     * Returns the cached value for the source and entity, or loads it if it is missing or expired.
+     * Null values are not cached.
+     *
+     * The same value is handed to every caller, so loaders should return values that cannot
+     * be modified (for instance a list wrapped with {@code Collections.unmodifiableList}).
+     *
+     * @param source where the value comes from, for instance "yahoo-quotes".
+     * @param entity what the value is about, for instance the symbols or the vehicle id.
+     * @param loader loads the value from upstream.
+     * @return the value.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(final String source, String entity, final Loader<V> loader)
+            throws IOException, URISyntaxException {
+        final String key = source + '\u0000' + entity;
+        final long ttlMillis = getTtlMillis(source);
+        long now = System.currentTimeMillis();
+        CachedValue entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && now - entry.loadedAtMillis < ttlMillis) {
+            hits.incrementAndGet();
+            if (entry.hits.incrementAndGet() >= HOT_HITS
+                    && now - entry.loadedAtMillis >= ttlMillis * REFRESH_AHEAD_FRACTION
+                    && entry.refreshing.compareAndSet(false, true)) {
+                refreshAhead(key, loader, entry);
+            }
+            return (V) entry.value;
+        }
+        misses.incrementAndGet();
+        return (V) load(key, loader);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + " misses: " + getMisses() + " evictions: " + getEvictions()
+                + " refreshes: " + getRefreshes() + " size: " + size();
+    }
+
+    private long getTtlMillis(String source) {
+        Long ttlMillis = ttlMillisBySource.get(source);
+        return (ttlMillis == null) ? defaultTtlMillis : ttlMillis;
+    }
+
+    private Object load(final String key, final Loader<?> loader) throws IOException, URISyntaxException {
+        try {
+            return loads.execute(key, new Callable<Object>() {
+                @Override
+                public Object call() throws IOException, URISyntaxException {
+                    Object value = loader.load();
+                    if (value != null) {
+                        synchronized (entries) {
+                            entries.put(key, new CachedValue(value, System.currentTimeMillis()));
+                        }
+                    }
+                    return value;
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof URISyntaxException) {
+                throw (URISyntaxException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private void refreshAhead(final String key, final Loader<?> loader, final CachedValue entry) {
+        refresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(key, loader);
+                    refreshes.incrementAndGet();
+                } catch (IOException | URISyntaxException | RuntimeException e) {
+                    // Keep serving the current value. It is loaded again once it expires.
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    // A cached value.
+    private static class CachedValue {
+        final Object value;
+        final long loadedAtMillis;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        CachedValue(Object value, long loadedAtMillis) {
+            this.value = value;
+            this.loadedAtMillis = loadedAtMillis;
+        }
+    }
+}
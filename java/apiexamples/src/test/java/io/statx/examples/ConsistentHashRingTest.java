@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ConsistentHashRingTest extends TestCase {
+
+    private static final int FEEDS = 1000;
+
+    public void testEmptyRingHasNoOwner() {
+        assertNull(new ConsistentHashRing(Collections.<String>emptySet()).ownerOf("feed"));
+    }
+
+    public void testOwnerDoesNotDependOnMemberOrder() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"));
+        ConsistentHashRing reversed = new ConsistentHashRing(Arrays.asList("c", "b", "a"));
+        for (int i = 0; i < FEEDS; i++) {
+            assertEquals(ring.ownerOf("feed" + i), reversed.ownerOf("feed" + i));
+        }
+    }
+
+    public void testFeedsAreSpreadOverAllMembers() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < FEEDS; i++) {
+            String owner = ring.ownerOf("feed" + i);
+            counts.put(owner, counts.containsKey(owner) ? counts.get(owner) + 1 : 1);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Uneven spread " + counts, count > FEEDS / 8 && count < FEEDS / 2);
+        }
+    }
+
+    public void testJoiningMemberOnlyTakesAboutItsShare() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a", "b", "c"));
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"));
+        int moved = 0;
+        for (int i = 0; i < FEEDS; i++) {
+            String feed = "feed" + i;
+            if (!before.ownerOf(feed).equals(after.ownerOf(feed))) {
+                // Feeds only move to the new member, never between the existing ones.
+                assertEquals("d", after.ownerOf(feed));
+                moved++;
+            }
+        }
+        // About 1/4 of the feeds move.
+        assertTrue("Moved " + moved, moved > FEEDS / 8 && moved < FEEDS * 3 / 8);
+    }
+
+    public void testLeavingMemberOnlyGivesUpItsFeeds() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a", "b", "c"));
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("a", "b"));
+        for (int i = 0; i < FEEDS; i++) {
+            String feed = "feed" + i;
+            if (!before.ownerOf(feed).equals("c")) {
+                assertEquals(before.ownerOf(feed), after.ownerOf(feed));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.model.HorizontalBarItem;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ItemDeltaTrackerTest extends TestCase {
+
+    private static final String STAT = "stat";
+
+    private final ItemDeltaTracker itemDeltaTracker = new ItemDeltaTracker();
+
+    public void testFirstUpdateIsASnapshot() {
+        ItemDeltaTracker.Delta delta = itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 1.0, "AMZN", 2.0));
+        assertTrue(delta.isSnapshotRequired());
+        assertFalse(delta.isEmpty());
+    }
+
+    public void testUnchangedBarsAreEmpty() {
+        publish(bars("AAPL", 1.0, "AMZN", 2.0));
+        ItemDeltaTracker.Delta delta = itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 1.0, "AMZN", 2.0));
+        assertTrue(delta.isEmpty());
+    }
+
+    public void testChangedValuesAreListed() {
+        publish(bars("AAPL", 1.0, "AMZN", 2.0, "GOOGL", 3.0));
+        ItemDeltaTracker.Delta delta =
+                itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 1.0, "AMZN", 2.5, "GOOGL", 3.0));
+        assertFalse(delta.isSnapshotRequired());
+        assertEquals(Arrays.asList("AMZN"), delta.getChangedItems());
+    }
+
+    public void testAddedRemovedOrReorderedBarsRequireASnapshot() {
+        publish(bars("AAPL", 1.0, "AMZN", 2.0));
+        assertTrue(itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 1.0, "AMZN", 2.0, "GOOGL", 3.0))
+                .isSnapshotRequired());
+        assertTrue(itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 1.0)).isSnapshotRequired());
+        assertTrue(itemDeltaTracker.diffHorizontalBars(STAT, bars("AMZN", 2.0, "AAPL", 1.0)).isSnapshotRequired());
+    }
+
+    public void testDuplicateNamesRequireASnapshot() {
+        publish(bars("AAPL", 1.0, "AAPL", 1.0));
+        assertTrue(itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 1.0, "AAPL", 1.0)).isSnapshotRequired());
+    }
+
+    public void testUncommittedDeltaIsSentAgain() {
+        publish(bars("AAPL", 1.0));
+        // The update with the new value failed, so it is not committed.
+        itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 2.0));
+        ItemDeltaTracker.Delta delta = itemDeltaTracker.diffHorizontalBars(STAT, bars("AAPL", 2.0));
+        assertEquals(Arrays.asList("AAPL"), delta.getChangedItems());
+    }
+
+    public void testStatsAreTrackedSeparately() {
+        publish(bars("AAPL", 1.0));
+        assertTrue(itemDeltaTracker.diffHorizontalBars("other", bars("AAPL", 1.0)).isSnapshotRequired());
+    }
+
+    private void publish(List<HorizontalBarItem> items) {
+        itemDeltaTracker.commit(itemDeltaTracker.diffHorizontalBars(STAT, items));
+    }
+
+    // Bars from name and value pairs.
+    private static List<HorizontalBarItem> bars(Object... namesAndValues) {
+        List<HorizontalBarItem> items = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            HorizontalBarItem item = new HorizontalBarItem();
+            item.setName((String) namesAndValues[i]);
+            item.setRawValue((Double) namesAndValues[i + 1]);
+            item.setColor(HorizontalBarItem.ColorEnum.values()[0]);
+            items.add(item);
+        }
+        return items;
+    }
+}
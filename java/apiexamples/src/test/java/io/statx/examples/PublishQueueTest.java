@@ -0,0 +1,204 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.ApiException;
+import io.statx.rest.api.StatsApi;
+import io.statx.rest.model.NumberStat;
+import io.statx.rest.model.Stat;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PublishQueueTest extends TestCase {
+
+    private static final String GROUP_ID = "group";
+
+    private RecordingStatsApi statsApi;
+
+    @Override
+    protected void setUp() {
+        statsApi = new RecordingStatsApi();
+    }
+
+    public void testLargestChangeIsPublishedFirst() throws Exception {
+        PublishQueue publishQueue = new PublishQueue(60, 1);
+        Date now = new Date();
+        for (String statId : new String[] {"small", "large", "medium"}) {
+            publishQueue.seed(GROUP_ID, statId, 100.0, now);
+        }
+        publishQueue.offer(GROUP_ID, "small", numberStat(101.0), 101.0);
+        publishQueue.offer(GROUP_ID, "large", numberStat(200.0), 200.0);
+        publishQueue.offer(GROUP_ID, "medium", numberStat(120.0), 120.0);
+
+        assertEquals(3, publishQueue.publish(statsApi, 10));
+        assertEquals(list("large", "medium", "small"), statsApi.statIds);
+        assertEquals(0, publishQueue.size());
+    }
+
+    public void testStaleStatOutranksRecentChange() throws Exception {
+        PublishQueue publishQueue = new PublishQueue(60, 1);
+        long now = System.currentTimeMillis();
+        publishQueue.seed(GROUP_ID, "recent", 100.0, new Date(now));
+        publishQueue.seed(GROUP_ID, "stale", 100.0, new Date(now - TimeUnit.HOURS.toMillis(2)));
+        // A 50% move weighs 30 minutes, less than the 2 hours the other stat waited.
+        publishQueue.offer(GROUP_ID, "recent", numberStat(200.0), 200.0);
+        publishQueue.offer(GROUP_ID, "stale", numberStat(100.0), 100.0);
+
+        assertEquals(1, publishQueue.publish(statsApi, 1));
+        assertEquals(list("stale"), statsApi.statIds);
+        assertEquals(1, publishQueue.size());
+    }
+
+    public void testChangeIsMeasuredFromTheLastPublishedValue() throws Exception {
+        PublishQueue publishQueue = new PublishQueue(60, 1);
+        Date now = new Date();
+        publishQueue.seed(GROUP_ID, "back", 10.0, now);
+        publishQueue.seed(GROUP_ID, "moved", 10.0, now);
+        // 10 -> 20 -> 10 ends where it started, so a small real move goes first.
+        publishQueue.offer(GROUP_ID, "back", numberStat(20.0), 20.0);
+        publishQueue.offer(GROUP_ID, "moved", numberStat(11.0), 11.0);
+        publishQueue.offer(GROUP_ID, "back", numberStat(10.0), 10.0);
+
+        assertEquals(2, publishQueue.size());
+        publishQueue.publish(statsApi, 1);
+        assertEquals(list("moved"), statsApi.statIds);
+    }
+
+    public void testNewerSampleReplacesQueuedUpdate() throws Exception {
+        PublishQueue publishQueue = new PublishQueue(60, 1);
+        NumberStat latest = numberStat(3.0);
+        publishQueue.offer(GROUP_ID, "stat", numberStat(1.0), 1.0);
+        publishQueue.offer(GROUP_ID, "stat", numberStat(2.0), 2.0);
+        publishQueue.offer(GROUP_ID, "stat", latest, 3.0);
+
+        assertEquals(1, publishQueue.size());
+        assertEquals(1, publishQueue.publish(statsApi, 10));
+        assertSame(latest, statsApi.updates.get(0));
+    }
+
+    public void testFailedUpdateIsQueuedAgain() throws Exception {
+        PublishQueue publishQueue = new PublishQueue(60, 1);
+        publishQueue.offer(GROUP_ID, "stat", numberStat(1.0), 1.0);
+        statsApi.failures = 1;
+        try {
+            publishQueue.publish(statsApi, 10);
+            fail("Expected an ApiException");
+        } catch (ApiException e) {
+            // Expected.
+        }
+        assertEquals(1, publishQueue.size());
+        assertEquals(1, publishQueue.publish(statsApi, 10));
+    }
+
+    public void testFailedUpdateDoesNotReplaceNewerSample() throws Exception {
+        final PublishQueue publishQueue = new PublishQueue(60, 1);
+        final NumberStat newer = numberStat(2.0);
+        publishQueue.offer(GROUP_ID, "stat", numberStat(1.0), 1.0);
+        StatsApi failingApi = new StatsApi() {
+            @Override
+            public Stat updateStat(String groupId, String statId, Stat stat) throws ApiException {
+                // A newer sample arrives while the update is being sent.
+                publishQueue.offer(groupId, statId, newer, 2.0);
+                throw new ApiException("unavailable");
+            }
+        };
+        try {
+            publishQueue.publish(failingApi, 10);
+            fail("Expected an ApiException");
+        } catch (ApiException e) {
+            // Expected.
+        }
+        assertEquals(1, publishQueue.size());
+        publishQueue.publish(statsApi, 10);
+        assertSame(newer, statsApi.updates.get(0));
+    }
+
+    public void testUpdateOfDeletedStatIsDropped() throws Exception {
+        final PublishQueue publishQueue = new PublishQueue(60, 1);
+        Date now = new Date();
+        for (String statId : new String[] {"deleted", "small", "large", "medium"}) {
+            publishQueue.seed(GROUP_ID, statId, 100.0, now);
+        }
+        publishQueue.offer(GROUP_ID, "small", numberStat(101.0), 101.0);
+        publishQueue.offer(GROUP_ID, "large", numberStat(200.0), 200.0);
+        publishQueue.offer(GROUP_ID, "medium", numberStat(120.0), 120.0);
+        publishQueue.offer(GROUP_ID, "deleted", numberStat(1000.0), 1000.0);
+        StatsApi notFoundApi = new StatsApi() {
+            @Override
+            public Stat updateStat(String groupId, String statId, Stat stat) throws ApiException {
+                // A newer sample arrives while the update is being sent.
+                publishQueue.offer(groupId, statId, numberStat(2000.0), 2000.0);
+                throw new ApiException(PublishQueue.NOT_FOUND, "Not Found");
+            }
+        };
+        try {
+            publishQueue.publish(notFoundApi, 10);
+            fail("Expected an ApiException");
+        } catch (ApiException e) {
+            assertEquals(PublishQueue.NOT_FOUND, e.getCode());
+        }
+        assertEquals(3, publishQueue.size());
+        publishQueue.publish(statsApi, 10);
+        assertEquals(list("large", "medium", "small"), statsApi.statIds);
+    }
+
+    public void testBudgetLimitsTheUpdatesSent() throws Exception {
+        PublishQueue publishQueue = new PublishQueue(60, 1);
+        for (int i = 0; i < 100; i++) {
+            publishQueue.offer(GROUP_ID, "stat" + i, numberStat(i), (double) i);
+        }
+        assertEquals(5, publishQueue.publish(statsApi, 5));
+        assertEquals(95, publishQueue.size());
+    }
+
+    public void testChanges() {
+        assertEquals(0.0, PublishQueue.valueChange(10.0, 10.0), 1e-9);
+        assertEquals(0.5, PublishQueue.valueChange(10.0, 20.0), 1e-9);
+        assertEquals(1.0, PublishQueue.valueChange(null, 20.0), 1e-9);
+        assertEquals(0.0, PublishQueue.stateChange("Charging", "Charging"), 1e-9);
+        assertEquals(1.0, PublishQueue.stateChange("Charging", "Complete"), 1e-9);
+    }
+
+    private static NumberStat numberStat(double value) {
+        NumberStat numberStat = new NumberStat();
+        numberStat.rawValue(value);
+        return numberStat;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> result = new ArrayList<>();
+        for (String value : values) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    // Records the updates instead of sending them. Fails the first {@code failures} calls.
+    private static class RecordingStatsApi extends StatsApi {
+        final List<String> statIds = new ArrayList<>();
+        final List<Stat> updates = new ArrayList<>();
+        int failures;
+
+        @Override
+        public Stat updateStat(String groupId, String statId, Stat stat) throws ApiException {
+            if (failures > 0) {
+                failures--;
+                throw new ApiException("unavailable");
+            }
+            statIds.add(statId);
+            updates.add(stat);
+            return stat;
+        }
+    }
+}
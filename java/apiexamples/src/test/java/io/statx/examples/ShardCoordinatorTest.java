@@ -0,0 +1,174 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ShardCoordinatorTest extends TestCase {
+
+    private static final long LEASE_MILLIS = 400;
+    private static final long REFRESH_MILLIS = 100;
+
+    private final List<String> feeds = new ArrayList<>();
+    private Path leaseDirectory;
+
+    @Override
+    protected void setUp() throws IOException {
+        leaseDirectory = Files.createTempDirectory("shards");
+        for (int i = 0; i < 50; i++) {
+            feeds.add("feed" + i);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(leaseDirectory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(leaseDirectory);
+    }
+
+    public void testNothingIsOwnedBeforeTheFirstRefresh() {
+        assertEquals(0, owned(coordinator("a", feeds)).size());
+    }
+
+    public void testSingleInstanceOwnsEveryFeed() throws IOException {
+        ShardCoordinator a = coordinator("a", feeds);
+        a.refresh();
+        assertEquals(feeds, owned(a));
+    }
+
+    public void testJoiningInstanceNeverOverlapsAndFeedsEndUpCovered() throws Exception {
+        ShardCoordinator a = coordinator("a", feeds);
+        ShardCoordinator b = coordinator("b", feeds);
+        a.refresh();
+        b.refresh();
+        // The joining instance waits until the previous owner gave the feeds up.
+        assertEquals(0, owned(b).size());
+
+        long end = System.currentTimeMillis() + 2 * LEASE_MILLIS;
+        while (System.currentTimeMillis() < end) {
+            a.refresh();
+            b.refresh();
+            for (String feed : feeds) {
+                assertFalse(feed + " published twice", a.owns(feed) && b.owns(feed));
+            }
+            Thread.sleep(REFRESH_MILLIS);
+        }
+        a.refresh();
+        b.refresh();
+        List<String> covered = owned(a);
+        covered.addAll(owned(b));
+        assertEquals(feeds.size(), covered.size());
+        assertTrue(owned(a).size() > 0);
+        assertTrue(owned(b).size() > 0);
+    }
+
+    public void testSecondJoinDuringHandoffNeverOverlaps() throws Exception {
+        ShardCoordinator a = coordinator("a", feeds);
+        ShardCoordinator b = coordinator("b", feeds);
+        a.refresh();
+        b.refresh();
+        Thread.sleep(LEASE_MILLIS / 2);
+        a.refresh();
+        b.refresh();
+        Thread.sleep(LEASE_MILLIS * 3 / 4);
+        a.refresh();
+        b.refresh();
+        assertEquals(feeds.size(), owned(a).size() + owned(b).size());
+
+        // Two instances join within one lease period, before the others refreshed.
+        ShardCoordinator c = coordinator("c", feeds);
+        ShardCoordinator d = coordinator("d", feeds);
+        c.refresh();
+        d.refresh();
+        c.refresh();
+        d.refresh();
+        List<ShardCoordinator> instances = Arrays.asList(a, b, c, d);
+        for (String feed : feeds) {
+            int owners = 0;
+            for (ShardCoordinator instance : instances) {
+                if (instance.owns(feed)) {
+                    owners++;
+                }
+            }
+            assertTrue(feed + " published " + owners + " times", owners <= 1);
+        }
+    }
+
+    public void testFeedsOfAnInstanceThatLeftAreTakenOverRightAway() throws IOException {
+        ShardCoordinator a = coordinator("a", feeds);
+        ShardCoordinator b = coordinator("b", feeds);
+        a.refresh();
+        b.refresh();
+        a.refresh();
+        b.leave();
+        a.refresh();
+        assertEquals(feeds, owned(a));
+    }
+
+    public void testInstanceStopsPublishingOnceItsLeaseLapsed() throws Exception {
+        ShardCoordinator a = coordinator("a", feeds);
+        a.refresh();
+        Thread.sleep(LEASE_MILLIS + REFRESH_MILLIS);
+        assertEquals(0, owned(a).size());
+    }
+
+    public void testInstanceWithOtherFeedsIsRefused() throws IOException {
+        ShardCoordinator a = coordinator("a", feeds);
+        ShardCoordinator b = coordinator("b", Arrays.asList("feed0", "other"));
+        a.refresh();
+        try {
+            b.refresh();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        assertEquals(0, owned(b).size());
+        // The refused instance did not join, so the running one keeps every feed.
+        a.refresh();
+        assertEquals(feeds, owned(a));
+    }
+
+    public void testFeedOrderDoesNotMatter() throws IOException {
+        List<String> reversed = new ArrayList<>(feeds);
+        Collections.reverse(reversed);
+        ShardCoordinator a = coordinator("a", feeds);
+        ShardCoordinator b = coordinator("b", reversed);
+        a.refresh();
+        b.refresh();
+    }
+
+    private ShardCoordinator coordinator(String instanceId, List<String> instanceFeeds) {
+        return new ShardCoordinator(leaseDirectory, instanceId, instanceFeeds, LEASE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private List<String> owned(ShardCoordinator shardCoordinator) {
+        List<String> result = new ArrayList<>();
+        for (String feed : feeds) {
+            if (shardCoordinator.owns(feed)) {
+                result.add(feed);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest extends TestCase {
+
+    private static final int CALLERS = 8;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() {
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testConcurrentCallsWithTheSameKeyShareOneExecution() throws Exception {
+        final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Integer> work = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                release.await();
+                return executions.incrementAndGet();
+            }
+        };
+
+        List<Future<Integer>> results = new ArrayList<>();
+        results.add(submit(singleFlight, "group", work));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < CALLERS; i++) {
+            results.add(submit(singleFlight, "group", work));
+        }
+        // Give the other callers time to join the call in flight.
+        Thread.sleep(100);
+        release.countDown();
+
+        for (Future<Integer> result : results) {
+            assertEquals(Integer.valueOf(1), result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    public void testCallsWithDifferentKeysRunSeparately() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        assertEquals("a", singleFlight.execute("a", constant("a")));
+        assertEquals("b", singleFlight.execute("b", constant("b")));
+    }
+
+    public void testKeyIsReleasedOnceTheCallCompletes() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<Integer> work = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executions.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), singleFlight.execute("group", work));
+        assertEquals(Integer.valueOf(2), singleFlight.execute("group", work));
+    }
+
+    public void testFailureIsReportedAndKeyReleased() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("group", new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    throw new IOException("boom");
+                }
+            });
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(0, singleFlight.inFlightCount());
+        assertEquals("ok", singleFlight.execute("group", constant("ok")));
+    }
+
+    private Future<Integer> submit(final SingleFlight<String, Integer> singleFlight, final String key,
+                                   final Callable<Integer> work) {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return singleFlight.execute(key, work);
+            }
+        });
+    }
+
+    private static Callable<String> constant(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+}
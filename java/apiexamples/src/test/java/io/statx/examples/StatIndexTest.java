@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.model.NumberStat;
+import io.statx.rest.model.Stat;
+import io.statx.rest.model.StatList;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+
+public class StatIndexTest extends TestCase {
+
+    public void testStatsAreIndexedByTitle() {
+        Stat queueDepth = stat("1", "Queue Depth");
+        Stat errors = stat("2", "Errors");
+        StatIndex statIndex = new StatIndex(statList(queueDepth, errors));
+
+        assertEquals(2, statIndex.size());
+        assertSame(queueDepth, statIndex.get("Queue Depth"));
+        assertSame(errors, statIndex.get("Errors"));
+        assertNull(statIndex.get("Latency"));
+        assertTrue(statIndex.getDuplicateTitles().isEmpty());
+    }
+
+    public void testFirstStatOfADuplicateTitleIsIndexedAndReported() {
+        Stat first = stat("1", "Queue Depth");
+        StatIndex statIndex = new StatIndex(statList(first, stat("2", "Queue Depth"), stat("3", "Errors")));
+
+        assertSame(first, statIndex.get("Queue Depth"));
+        assertEquals(2, statIndex.size());
+        assertEquals(Collections.singleton("Queue Depth"), statIndex.getDuplicateTitles());
+    }
+
+    public void testStatsWithoutTitleAreSkipped() {
+        StatIndex statIndex = new StatIndex(statList(stat("1", null), stat("2", "Errors")));
+        assertEquals(1, statIndex.size());
+    }
+
+    public void testEmptyListing() {
+        assertEquals(0, new StatIndex(null).size());
+        assertEquals(0, new StatIndex(new StatList()).size());
+    }
+
+    public void testPutKeepsTheIndexedStat() {
+        Stat indexed = stat("1", "Queue Depth");
+        StatIndex statIndex = new StatIndex(statList(indexed));
+        Stat created = stat("2", "Errors");
+
+        statIndex.put("Errors", created);
+        statIndex.put("Queue Depth", stat("3", "Queue Depth"));
+        assertSame(created, statIndex.get("Errors"));
+        assertSame(indexed, statIndex.get("Queue Depth"));
+    }
+
+    static Stat stat(final String id, String title) {
+        NumberStat numberStat = new NumberStat() {
+            @Override
+            public String getId() {
+                return id;
+            }
+        };
+        numberStat.setTitle(title);
+        return numberStat;
+    }
+
+    static StatList statList(Stat... stats) {
+        StatList statList = new StatList();
+        for (Stat stat : stats) {
+            statList.addDataItem(stat);
+        }
+        return statList;
+    }
+}
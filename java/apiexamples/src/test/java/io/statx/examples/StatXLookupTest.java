@@ -0,0 +1,207 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import io.statx.rest.ApiException;
+import io.statx.rest.api.GroupsApi;
+import io.statx.rest.api.StatsApi;
+import io.statx.rest.model.Group;
+import io.statx.rest.model.NumberStat;
+import io.statx.rest.model.Stat;
+import io.statx.rest.model.StatList;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StatXLookupTest extends TestCase {
+
+    private static final Group GROUP = new Group() {
+        @Override
+        public String getId() {
+            return "group";
+        }
+
+        @Override
+        public String getName() {
+            return "StatX-API-Examples";
+        }
+    };
+
+    private StubStatsApi statsApi;
+    private StatXLookup statXLookup;
+
+    @Override
+    protected void setUp() {
+        statsApi = new StubStatsApi();
+        statXLookup = new StatXLookup(new GroupsApi(), statsApi);
+    }
+
+    public void testBootstrapReportsDuplicateTitles() throws Exception {
+        statsApi.add(StatIndexTest.stat("1", "Queue Depth"));
+        statsApi.add(StatIndexTest.stat("2", "Queue Depth"));
+        statsApi.add(StatIndexTest.stat("3", "Errors"));
+
+        StatIndex statIndex = statXLookup.bootstrap(GROUP);
+        assertEquals(1, statsApi.listings);
+        assertEquals(2, statIndex.size());
+        assertEquals(Collections.singleton("Queue Depth"), statIndex.getDuplicateTitles());
+    }
+
+    public void testLookupsOfABootstrappedGroupAreAnsweredFromTheIndex() throws Exception {
+        statsApi.add(StatIndexTest.stat("1", "Queue Depth"));
+        statXLookup.bootstrap(GROUP);
+
+        assertEquals("1", statXLookup.findStat(GROUP, "Queue Depth").getId());
+        assertNull(statXLookup.findStat(GROUP, "Errors"));
+        assertEquals("1", statXLookup.findOrCreateStat(GROUP, numberStat("Queue Depth")).getId());
+        assertEquals(list(), statsApi.lookups);
+        assertEquals(0, statsApi.creates);
+    }
+
+    public void testCreatedStatsAreAddedToTheIndex() throws Exception {
+        statXLookup.bootstrap(GROUP);
+
+        StatXLookup.CreateResult result = statXLookup.createMissingStats(GROUP,
+                list(numberStat("Queue Depth"), numberStat("Errors")), 2);
+        assertEquals(2, statsApi.creates);
+        assertEquals(2, result.getStats().size());
+        assertEquals(2, result.getCreatedTitles().size());
+        assertTrue(result.getFailures().isEmpty());
+
+        int lookups = statsApi.lookups.size();
+        assertEquals(result.getStats().get("Errors").getId(), statXLookup.findStat(GROUP, "Errors").getId());
+        statXLookup.createMissingStats(GROUP, list(numberStat("Queue Depth"), numberStat("Errors")), 2);
+        assertEquals(2, statsApi.creates);
+        assertEquals(lookups, statsApi.lookups.size());
+    }
+
+    public void testApiIsCheckedAgainBeforeCreatingAStatMissingFromTheIndex() throws Exception {
+        statXLookup.bootstrap(GROUP);
+        // Created by someone else after the group was listed.
+        statsApi.add(StatIndexTest.stat("1", "Queue Depth"));
+
+        StatXLookup.CreateResult result = statXLookup.createMissingStats(GROUP,
+                list(numberStat("Queue Depth"), numberStat("Errors")), 2);
+        assertEquals("1", result.getStats().get("Queue Depth").getId());
+        assertEquals(Collections.singleton("Errors"), result.getCreatedTitles());
+        assertEquals(1, statsApi.creates);
+        assertTrue(statsApi.lookups.contains("Queue Depth"));
+
+        // The stat found through the api is indexed too.
+        assertEquals("1", statXLookup.findStat(GROUP, "Queue Depth").getId());
+    }
+
+    public void testFailedCreateDoesNotStopTheOthers() throws Exception {
+        statXLookup.bootstrap(GROUP);
+        statsApi.failures.put("Bad Title", new ApiException(400, "Bad Request"));
+
+        StatXLookup.CreateResult result = statXLookup.createMissingStats(GROUP,
+                list(numberStat("Bad Title"), numberStat("Queue Depth")), 1);
+        assertEquals(Collections.singleton("Queue Depth"), result.getCreatedTitles());
+        assertEquals(Collections.singleton("Bad Title"), result.getFailures().keySet());
+        assertEquals(400, result.getFailures().get("Bad Title").getCode());
+        assertNull(statXLookup.findStat(GROUP, "Bad Title"));
+    }
+
+    public void testCreateMissingStatsRequiresABootstrap() throws Exception {
+        try {
+            statXLookup.createMissingStats(GROUP, list(numberStat("Queue Depth")), 1);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        assertEquals(0, statsApi.creates);
+    }
+
+    public void testInvalidatedGroupIsListedAgain() throws Exception {
+        statsApi.add(StatIndexTest.stat("1", "Queue Depth"));
+        statXLookup.bootstrap(GROUP);
+        // The stat is deleted in the app.
+        statsApi.stats.clear();
+
+        statXLookup.invalidate(GROUP);
+        try {
+            statXLookup.createMissingStats(GROUP, list(numberStat("Queue Depth")), 1);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        StatIndex statIndex = statXLookup.bootstrap(GROUP);
+        assertEquals(2, statsApi.listings);
+        assertEquals(0, statIndex.size());
+        assertNull(statXLookup.findStat(GROUP, "Queue Depth"));
+
+        StatXLookup.CreateResult result = statXLookup.createMissingStats(GROUP, list(numberStat("Queue Depth")), 1);
+        assertEquals(Collections.singleton("Queue Depth"), result.getCreatedTitles());
+        assertEquals(1, statsApi.creates);
+    }
+
+    private static NumberStat numberStat(String title) {
+        NumberStat numberStat = new NumberStat();
+        numberStat.setTitle(title);
+        return numberStat;
+    }
+
+    @SafeVarargs
+    private static <T> List<T> list(T... values) {
+        List<T> result = new ArrayList<>();
+        for (T value : values) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    // Keeps the stats of one group in memory and records the calls made. Creates of the titles
+    // in {@code failures} fail with the given error.
+    private static class StubStatsApi extends StatsApi {
+        final Map<String, Stat> stats = new LinkedHashMap<>();
+        final Map<String, ApiException> failures = new HashMap<>();
+        final List<String> lookups = new ArrayList<>();
+        int listings;
+        int creates;
+
+        synchronized void add(Stat stat) {
+            // Keyed by id, so that several stats can share a title.
+            stats.put(stat.getId(), stat);
+        }
+
+        @Override
+        public synchronized StatList getStats(String groupName, String statTitle) throws ApiException {
+            if (statTitle == null) {
+                listings++;
+            } else {
+                lookups.add(statTitle);
+            }
+            StatList statList = new StatList();
+            for (Stat stat : stats.values()) {
+                if ((statTitle == null) || statTitle.equals(stat.getTitle())) {
+                    statList.addDataItem(stat);
+                }
+            }
+            return statList;
+        }
+
+        @Override
+        public synchronized Stat createStat(String groupId, Stat stat) throws ApiException {
+            if (failures.containsKey(stat.getTitle())) {
+                throw failures.get(stat.getTitle());
+            }
+            creates++;
+            Stat created = StatIndexTest.stat("created" + creates, stat.getTitle());
+            add(created);
+            return created;
+        }
+    }
+}
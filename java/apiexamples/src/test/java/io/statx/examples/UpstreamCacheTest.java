@@ -0,0 +1,152 @@
+/**
+ * Copyright 2016 StatX Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ */
+
+package io.statx.examples;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UpstreamCacheTest extends TestCase {
+
+    private static final long TTL_MILLIS = 200;
+
+    public void testValueIsServedFromTheCacheUntilItExpires() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(10, TTL_MILLIS, TimeUnit.MILLISECONDS);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals(Integer.valueOf(1), upstreamCache.get("quotes", "AAPL", loader));
+        assertEquals(Integer.valueOf(1), upstreamCache.get("quotes", "AAPL", loader));
+        assertEquals(1, upstreamCache.getMisses());
+        assertEquals(1, upstreamCache.getHits());
+
+        Thread.sleep(TTL_MILLIS + 50);
+        assertEquals(Integer.valueOf(2), upstreamCache.get("quotes", "AAPL", loader));
+        assertEquals(2, upstreamCache.getMisses());
+    }
+
+    public void testSourcesAndEntitiesAreCachedSeparately() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(10, 1, TimeUnit.MINUTES);
+        CountingLoader loader = new CountingLoader();
+        upstreamCache.get("quotes", "AAPL", loader);
+        upstreamCache.get("quotes", "AMZN", loader);
+        upstreamCache.get("vehicles", "AAPL", loader);
+        assertEquals(3, loader.loads.get());
+        assertEquals(3, upstreamCache.size());
+    }
+
+    public void testSourceTtlOverridesTheDefault() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(10, TTL_MILLIS, TimeUnit.MILLISECONDS);
+        upstreamCache.setTtl("slow", 1, TimeUnit.HOURS);
+        CountingLoader slow = new CountingLoader();
+        CountingLoader fast = new CountingLoader();
+        upstreamCache.get("slow", "entity", slow);
+        upstreamCache.get("fast", "entity", fast);
+
+        Thread.sleep(TTL_MILLIS + 50);
+        upstreamCache.get("slow", "entity", slow);
+        upstreamCache.get("fast", "entity", fast);
+        assertEquals(1, slow.loads.get());
+        assertEquals(2, fast.loads.get());
+    }
+
+    public void testLeastRecentlyUsedValueIsEvicted() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(2, 1, TimeUnit.MINUTES);
+        CountingLoader a = new CountingLoader();
+        CountingLoader b = new CountingLoader();
+        CountingLoader c = new CountingLoader();
+        upstreamCache.get("quotes", "a", a);
+        upstreamCache.get("quotes", "b", b);
+        // Reading a makes b the least recently used one.
+        upstreamCache.get("quotes", "a", a);
+        upstreamCache.get("quotes", "c", c);
+
+        assertEquals(2, upstreamCache.size());
+        assertEquals(1, upstreamCache.getEvictions());
+        upstreamCache.get("quotes", "a", a);
+        upstreamCache.get("quotes", "b", b);
+        assertEquals(1, a.loads.get());
+        assertEquals(2, b.loads.get());
+    }
+
+    public void testHotValueIsRefreshedBeforeItExpires() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(10, TTL_MILLIS, TimeUnit.MILLISECONDS);
+        CountingLoader loader = new CountingLoader();
+        upstreamCache.get("quotes", "AAPL", loader);
+        upstreamCache.get("quotes", "AAPL", loader);
+
+        // Past 80% of the time to live a read of the hot value reloads it in the background,
+        // and still gets the current value.
+        Thread.sleep(TTL_MILLIS * 85 / 100);
+        assertEquals(Integer.valueOf(1), upstreamCache.get("quotes", "AAPL", loader));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (upstreamCache.getRefreshes() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, upstreamCache.getRefreshes());
+
+        assertEquals(Integer.valueOf(2), upstreamCache.get("quotes", "AAPL", loader));
+        assertEquals(1, upstreamCache.getMisses());
+    }
+
+    public void testColdValueIsNotRefreshedAhead() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(10, TTL_MILLIS, TimeUnit.MILLISECONDS);
+        CountingLoader loader = new CountingLoader();
+        upstreamCache.get("quotes", "AAPL", loader);
+        Thread.sleep(TTL_MILLIS * 85 / 100);
+        upstreamCache.get("quotes", "AAPL", loader);
+        Thread.sleep(50);
+        assertEquals(0, upstreamCache.getRefreshes());
+        assertEquals(1, loader.loads.get());
+    }
+
+    public void testNullIsNotCached() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(10, 1, TimeUnit.MINUTES);
+        final AtomicInteger loads = new AtomicInteger();
+        UpstreamCache.Loader<String> loader = new UpstreamCache.Loader<String>() {
+            @Override
+            public String load() {
+                loads.incrementAndGet();
+                return null;
+            }
+        };
+        assertNull(upstreamCache.get("quotes", "AAPL", loader));
+        assertNull(upstreamCache.get("quotes", "AAPL", loader));
+        assertEquals(2, loads.get());
+        assertEquals(0, upstreamCache.size());
+    }
+
+    public void testLoadFailureIsReported() throws Exception {
+        UpstreamCache upstreamCache = new UpstreamCache(10, 1, TimeUnit.MINUTES);
+        try {
+            upstreamCache.get("quotes", "AAPL", new UpstreamCache.Loader<String>() {
+                @Override
+                public String load() throws IOException {
+                    throw new IOException("unavailable");
+                }
+            });
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        assertEquals(0, upstreamCache.size());
+    }
+
+    // Returns 1, 2, 3... on successive loads.
+    private static class CountingLoader implements UpstreamCache.Loader<Integer> {
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public Integer load() {
+            return loads.incrementAndGet();
+        }
+    }
+}